@@ -16,11 +16,13 @@
 
 package de.gematik.idp.graserver;
 
-import de.gematik.idp.authentication.IdpJwtProcessor;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import de.gematik.idp.graserver.data.AuthorizationCodeBuilder;
 import de.gematik.idp.graserver.services.ClientAssertionBuilder;
 import de.gematik.idp.graserver.services.EntityStatementBuilder;
 import de.gematik.idp.graserver.services.JwksBuilder;
+import de.gematik.idp.graserver.services.JwsSigner;
+import de.gematik.idp.graserver.services.RandomnessService;
 import java.security.Key;
 import lombok.RequiredArgsConstructor;
 import org.springframework.context.annotation.Bean;
@@ -30,14 +32,20 @@ import org.springframework.context.annotation.Configuration;
 @RequiredArgsConstructor
 public class FlowBeanCreation {
 
-  private final IdpJwtProcessor jwtProcessorTokenSigPrivKey;
+  private final JwsSigner jwsSignerTokenSigPrivKey;
+  private final ObjectMapper objectMapper;
   private final Key symmetricEncryptionKey;
   private final ServerUrlService serverUrlService;
+  private final RandomnessService randomnessService;
 
   @Bean
   public AuthorizationCodeBuilder authorizationCodeBuilder() {
     return new AuthorizationCodeBuilder(
-        jwtProcessorTokenSigPrivKey, symmetricEncryptionKey, serverUrlService.determineServerUrl());
+        jwsSignerTokenSigPrivKey,
+        objectMapper,
+        symmetricEncryptionKey,
+        serverUrlService.determineServerUrl(),
+        randomnessService);
   }
 
   @Bean
@@ -47,7 +55,7 @@ public class FlowBeanCreation {
 
   @Bean
   public ClientAssertionBuilder clientAssertionBuilder() {
-    return new ClientAssertionBuilder();
+    return new ClientAssertionBuilder(randomnessService);
   }
 
   @Bean
@@ -27,6 +27,7 @@ import de.gematik.idp.data.KeyConfigurationBase;
 import de.gematik.idp.file.ResourceReader;
 import de.gematik.idp.graserver.configuration.FdAuthServerConfiguration;
 import de.gematik.idp.graserver.exceptions.FdAuthServerException;
+import de.gematik.idp.graserver.services.JwsSigner;
 import java.io.IOException;
 import java.io.InputStream;
 import java.security.Key;
@@ -108,6 +109,17 @@ public class KeyConfiguration implements KeyConfigurationBase {
         tokenSigPrivKey().getIdentity().getPrivateKey(), tokenSigPrivKey().getKeyId());
   }
 
+  @Bean
+  public JwsSigner jwsSignerEsSigPrivKey() {
+    return new JwsSigner(esSigPrivKey().getIdentity().getPrivateKey(), esSigPrivKey().getKeyId());
+  }
+
+  @Bean
+  public JwsSigner jwsSignerTokenSigPrivKey() {
+    return new JwsSigner(
+        tokenSigPrivKey().getIdentity().getPrivateKey(), tokenSigPrivKey().getKeyId());
+  }
+
   @Bean
   public Key symmetricEncryptionKey() {
     return new SecretKeySpec(
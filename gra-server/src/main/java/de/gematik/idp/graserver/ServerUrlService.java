@@ -17,27 +17,50 @@
 package de.gematik.idp.graserver;
 
 import de.gematik.idp.IdpConstants;
+import de.gematik.idp.graserver.configuration.CacheConfig;
 import de.gematik.idp.graserver.configuration.FdAuthServerConfiguration;
+import de.gematik.idp.graserver.exceptions.FdAuthServerException;
+import de.gematik.idp.graserver.services.OutboundClientRegistry;
+import de.gematik.idp.graserver.services.RetryingGetExecutor;
+import de.gematik.idp.graserver.services.SingleFlightCache;
 import de.gematik.idp.token.JsonWebToken;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import kong.unirest.core.HttpResponse;
-import kong.unirest.core.Unirest;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+/**
+ * Urls of the Fd-Auth-Server and the Fedmaster. The fetch endpoint of the Fedmaster is read from
+ * its entity statement, which is fetched once, kept until it expires and refreshed in the
+ * background ahead of expiry. Concurrent callers share one fetch, failed fetches are repeated with
+ * exponential backoff instead of on every request.
+ */
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class ServerUrlService {
 
   private final FdAuthServerConfiguration fdAuthServerConfiguration;
-  private String fedmasterUrl;
-  private String fedmasterFetchEntityStatementEndpoint;
+  private final OutboundClientRegistry outboundClientRegistry;
+  private final RetryingGetExecutor retryingGetExecutor;
+  private final Executor applicationTaskExecutor;
+
+  private final SingleFlightCache<String, FetchEndpoint> fetchEndpoints =
+      new SingleFlightCache<>(
+          fetchEndpoint -> !fetchEndpoint.isExpired(System.currentTimeMillis()));
+  private final AtomicBoolean refreshing = new AtomicBoolean();
+  private final AtomicInteger failedFetches = new AtomicInteger();
+  private volatile long nextFetchMillis;
 
   public String determineServerUrl() {
     return getServerUrlFromConfig()
@@ -45,35 +68,109 @@ public class ServerUrlService {
   }
 
   public String determineFedmasterUrl() {
-    if (fedmasterUrl == null) {
-      fedmasterUrl =
-          Optional.ofNullable(fdAuthServerConfiguration.getFedmasterUrl())
-              .filter(StringUtils::isNotBlank)
-              .orElse("Parameter \"fd-auth-server.fedmasterUrl\" not found in configuration.");
-    }
-    return fedmasterUrl;
+    return Optional.ofNullable(fdAuthServerConfiguration.getFedmasterUrl())
+        .filter(StringUtils::isNotBlank)
+        .orElse("Parameter \"fd-auth-server.fedmasterUrl\" not found in configuration.");
   }
 
+  /**
+   * Returns the fetch endpoint of the Fedmaster. An expired endpoint is only served while the
+   * Fedmaster cannot be reached; without any endpoint the request fails with 503.
+   */
   public String determineFetchEntityStatementEndpoint() {
-    if (fedmasterFetchEntityStatementEndpoint == null) {
+    final String fedmasterUrl = determineFedmasterUrl();
+    final long now = System.currentTimeMillis();
+    final Optional<FetchEndpoint> cached = fetchEndpoints.peek(fedmasterUrl);
+    if (cached.isPresent() && !cached.get().isExpired(now)) {
+      if (cached.get().isDueForRefresh(now) && now >= nextFetchMillis && !refreshing.get()) {
+        applicationTaskExecutor.execute(this::refreshFetchEndpointIfDue);
+      }
+      return cached.get().endpoint();
+    }
+    if (now < nextFetchMillis) {
+      return staleOrUnavailable(cached, fedmasterUrl, null);
+    }
+    try {
+      return fetchEndpoints.get(fedmasterUrl, this::fetchFetchEndpoint).endpoint();
+    } catch (final RuntimeException e) {
+      return staleOrUnavailable(cached, fedmasterUrl, e);
+    }
+  }
+
+  /** Fetches the entity statement of the Fedmaster again once its refresh is due. */
+  @Scheduled(fixedDelay = 10, timeUnit = TimeUnit.SECONDS)
+  public void refreshFetchEndpointIfDue() {
+    final String fedmasterUrl = determineFedmasterUrl();
+    final long now = System.currentTimeMillis();
+    if (fetchEndpoints.peek(fedmasterUrl).filter(e -> e.isDueForRefresh(now)).isEmpty()
+        || now < nextFetchMillis
+        || !refreshing.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      fetchEndpoints.refresh(fedmasterUrl, this::fetchFetchEndpoint);
+      log.debug("EntityStatement of Fedmaster {} refreshed ahead of expiry", fedmasterUrl);
+    } catch (final RuntimeException e) {
+      log.warn(
+          "Refreshing EntityStatement of Fedmaster {} failed: {}", fedmasterUrl, e.getMessage());
+    } finally {
+      refreshing.set(false);
+    }
+  }
+
+  private FetchEndpoint fetchFetchEndpoint(final String fedmasterUrl) {
+    final CacheConfig cacheConfig = fdAuthServerConfiguration.getCache();
+    try {
       final HttpResponse<String> resp =
-          Unirest.get(determineFedmasterUrl() + IdpConstants.ENTITY_STATEMENT_ENDPOINT).asString();
-      if (resp.getStatus() == HttpStatus.OK.value()) {
-        final JsonWebToken fedmasterEntityStatement = new JsonWebToken(resp.getBody());
-        log.info(
-            "fedmasterEntityStatement from {}: {}",
-            determineFedmasterUrl(),
-            fedmasterEntityStatement);
-        fedmasterFetchEntityStatementEndpoint =
-            readFederationFetchEndpointFromEntityStatement(fedmasterEntityStatement);
-      } else {
-        log.info(
+          retryingGetExecutor.get(
+              () ->
+                  outboundClientRegistry.get(
+                      fedmasterUrl + IdpConstants.ENTITY_STATEMENT_ENDPOINT));
+      if (resp.getStatus() != HttpStatus.OK.value()) {
+        throw new FdAuthServerException(
             "Error while Fetching the Fedmasters EntityStatement: "
-                + determineFedmasterUrl()
-                + IdpConstants.ENTITY_STATEMENT_ENDPOINT);
+                + fedmasterUrl
+                + IdpConstants.ENTITY_STATEMENT_ENDPOINT
+                + ", status "
+                + resp.getStatus(),
+            HttpStatus.SERVICE_UNAVAILABLE);
       }
+      final JsonWebToken fedmasterEntityStatement = new JsonWebToken(resp.getBody());
+      log.info("fedmasterEntityStatement from {}: {}", fedmasterUrl, fedmasterEntityStatement);
+      final FetchEndpoint fetchEndpoint =
+          FetchEndpoint.of(
+              readFederationFetchEndpointFromEntityStatement(fedmasterEntityStatement),
+              fedmasterEntityStatement.getBodyClaims(),
+              cacheConfig.getEntityStatementRefreshFraction(),
+              // an expired statement is kept a little, otherwise every request would fetch it
+              System.currentTimeMillis() + cacheConfig.getFedmasterRefetchMinBackoff().toMillis());
+      failedFetches.set(0);
+      nextFetchMillis = 0;
+      return fetchEndpoint;
+    } catch (final RuntimeException e) {
+      final long backoffMillis =
+          Math.min(
+              cacheConfig.getFedmasterRefetchMaxBackoff().toMillis(),
+              cacheConfig.getFedmasterRefetchMinBackoff().toMillis()
+                  << Math.min(failedFetches.getAndIncrement(), 20));
+      nextFetchMillis = System.currentTimeMillis() + backoffMillis;
+      throw e;
     }
-    return fedmasterFetchEntityStatementEndpoint;
+  }
+
+  private static String staleOrUnavailable(
+      final Optional<FetchEndpoint> cached, final String fedmasterUrl, final RuntimeException e) {
+    if (cached.isPresent()) {
+      log.debug("EntityStatement of Fedmaster {} expired, Fedmaster unavailable", fedmasterUrl);
+      return cached.get().endpoint();
+    }
+    if (e instanceof final FdAuthServerException fdAuthServerException) {
+      throw fdAuthServerException;
+    }
+    throw new FdAuthServerException(
+        "Fetch endpoint of Fedmaster " + fedmasterUrl + " unknown, Fedmaster unavailable",
+        e,
+        HttpStatus.SERVICE_UNAVAILABLE);
   }
 
   private static String readFederationFetchEndpointFromEntityStatement(
@@ -95,15 +192,33 @@ public class ServerUrlService {
         .filter(StringUtils::isNotBlank);
   }
 
-    public Optional<String> determineSignedJwksUri(final JsonWebToken entityStmnt) {
-        final Map<String, Object> bodyClaims = entityStmnt.getBodyClaims();
-        final Map<String, Object> metadata =
-                Objects.requireNonNull(
-                        (Map<String, Object>) bodyClaims.get("metadata"), "missing claim: metadata");
-        final Map<String, Object> openidRelyingParty =
-                Objects.requireNonNull(
-                        (Map<String, Object>) metadata.get("openid_provider"),
-                        "missing claim: openid_provider");
-        return Optional.ofNullable((String) openidRelyingParty.getOrDefault("signed_jwks_uri", null));
+  /**
+   * @param refreshAtMillis once passed, the entity statement is fetched again in the background
+   */
+  private record FetchEndpoint(String endpoint, long refreshAtMillis, long expiresAtMillis) {
+
+    static FetchEndpoint of(
+        final String endpoint,
+        final Map<String, Object> bodyClaims,
+        final double refreshFraction,
+        final long minRefreshAtMillis) {
+      final long exp = TimeUnit.SECONDS.toMillis(epochSecond(bodyClaims.get("exp")));
+      final long iat = Math.min(exp, TimeUnit.SECONDS.toMillis(epochSecond(bodyClaims.get("iat"))));
+      final long refreshAt =
+          Math.max(iat + (long) ((exp - iat) * refreshFraction), minRefreshAtMillis);
+      return new FetchEndpoint(endpoint, refreshAt, Math.max(exp, refreshAt));
+    }
+
+    private static long epochSecond(final Object claim) {
+      return claim instanceof Number epochSecond ? epochSecond.longValue() : 0;
+    }
+
+    boolean isDueForRefresh(final long nowMillis) {
+      return nowMillis >= refreshAtMillis;
     }
+
+    boolean isExpired(final long nowMillis) {
+      return nowMillis >= expiresAtMillis;
+    }
+  }
 }
@@ -0,0 +1,74 @@
+/*
+ *  Copyright 2023 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.idp.graserver.configuration;
+
+import java.time.Duration;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+
+/** Settings of the caches for signed artifacts of the Fd-Auth-Server and the federation. */
+@Getter
+@Setter
+@ToString
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class CacheConfig {
+
+  /** Maximum age of the cached signed_jwks before it is signed again. */
+  @Builder.Default private Duration signedJwksResignInterval = Duration.ofHours(1);
+
+  /**
+   * Fraction of the lifetime (iat to exp) of a cached entity statement of an Idp-Sektoral or the
+   * Fedmaster after which it is refreshed in the background.
+   */
+  @Builder.Default private double entityStatementRefreshFraction = 0.75;
+
+  /** Time a signed_jwks fetched from an Idp-Sektoral is used without fetching it again. */
+  @Builder.Default private Duration signedJwksIdpTimeToLive = Duration.ofHours(1);
+
+  /**
+   * Minimum interval between two fetches of the signed_jwks of an Idp-Sektoral caused by an unknown
+   * kid, so tokens with arbitrary kids cannot flood the Idp-Sektoral.
+   */
+  @Builder.Default private Duration signedJwksIdpKidMissRefetchInterval = Duration.ofSeconds(30);
+
+  /**
+   * Maximum number of verified entity statement signatures remembered, so unchanged statements are
+   * not verified again on every fetch.
+   */
+  @Builder.Default private int verifiedJwsMaxEntries = 1000;
+
+  /**
+   * Minimum interval between two fetches of the entity list from the Fedmaster while the cached one
+   * is expired.
+   */
+  @Builder.Default private Duration entityListRefetchInterval = Duration.ofSeconds(30);
+
+  /**
+   * Wait after the first failed fetch of the entity statement of the Fedmaster before it is fetched
+   * again. Doubled with every further failure up to fedmasterRefetchMaxBackoff.
+   */
+  @Builder.Default private Duration fedmasterRefetchMinBackoff = Duration.ofSeconds(1);
+
+  /** Maximum wait between two failed fetches of the entity statement of the Fedmaster. */
+  @Builder.Default private Duration fedmasterRefetchMaxBackoff = Duration.ofMinutes(1);
+}
@@ -0,0 +1,50 @@
+/*
+ *  Copyright 2023 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.idp.graserver.configuration;
+
+import java.time.Duration;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+
+/** Settings of the circuit breakers guarding the requests to each Idp-Sektoral. */
+@Getter
+@Setter
+@ToString
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class CircuitBreakerConfig {
+
+  /** Consecutive failed requests to an Idp-Sektoral after which its circuit opens. */
+  @Builder.Default private int failureThreshold = 5;
+
+  /**
+   * Time requests to an Idp-Sektoral with an open circuit fail immediately. Afterwards a single
+   * probe request is let through, its outcome closes or opens the circuit again.
+   */
+  @Builder.Default private Duration openDuration = Duration.ofSeconds(30);
+
+  /**
+   * Upper bound of issuers with their own circuit. Issuers are taken from requests, so it limits
+   * what unknown issuers can occupy.
+   */
+  @Builder.Default private int maxIssuers = 256;
+}
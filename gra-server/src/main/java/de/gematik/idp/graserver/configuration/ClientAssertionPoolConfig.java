@@ -0,0 +1,47 @@
+/*
+ *  Copyright 2023 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.idp.graserver.configuration;
+
+import java.time.Duration;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+
+/** Settings of the pre-signed client assertions for the token requests (message nr.10). */
+@Getter
+@Setter
+@ToString
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class ClientAssertionPoolConfig {
+
+  /** Sign client assertions ahead in the background instead of during the token request. */
+  @Builder.Default private boolean enabled = true;
+
+  /** Number of unused client assertions kept for each token endpoint of an Idp-Sektoral. */
+  @Builder.Default private int size = 4;
+
+  /**
+   * Minimum remaining lifetime of a pre-signed client assertion, older ones are discarded so they
+   * cannot expire on their way to the Idp-Sektoral.
+   */
+  @Builder.Default private Duration minRemainingLifetime = Duration.ofSeconds(45);
+}
@@ -50,4 +50,26 @@ public class FdAuthServerConfiguration {
   private String fedmasterSigPubKeyFilePath;
   private String clientId;
   private String loglevel;
+  @Builder.Default private CacheConfig cache = new CacheConfig();
+  @Builder.Default private SessionStoreConfig sessionStore = new SessionStoreConfig();
+  @Builder.Default private OutboundConfig outbound = new OutboundConfig();
+  @Builder.Default private CircuitBreakerConfig circuitBreaker = new CircuitBreakerConfig();
+  @Builder.Default private RetryConfig retry = new RetryConfig();
+  @Builder.Default private WarmUpConfig warmUp = new WarmUpConfig();
+
+  @Builder.Default
+  private ClientAssertionPoolConfig clientAssertionPool = new ClientAssertionPoolConfig();
+
+  @Builder.Default private RandomnessConfig randomness = new RandomnessConfig();
+
+  /**
+   * BLOCKING keeps a servlet thread for each App2App request while the Idp-Sektoral answers, ASYNC
+   * releases it and continues once the response arrived.
+   */
+  @Builder.Default private App2AppMode app2AppMode = App2AppMode.BLOCKING;
+
+  public enum App2AppMode {
+    BLOCKING,
+    ASYNC
+  }
 }
@@ -0,0 +1,51 @@
+/*
+ *  Copyright 2023 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.idp.graserver.configuration;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+
+/** Settings of the HTTP clients for requests to the Fedmaster and the Idp-Sektorals. */
+@Getter
+@Setter
+@ToString
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class OutboundConfig {
+
+  /** Maximum time to establish a connection to a destination. */
+  @Builder.Default private Duration connectTimeout = Duration.ofSeconds(5);
+
+  /** Maximum time to wait for the response of a destination. */
+  @Builder.Default private Duration requestTimeout = Duration.ofSeconds(10);
+
+  /** Preferred HTTP version, HTTP_2 falls back to HTTP/1.1 if a destination does not offer it. */
+  @Builder.Default private HttpClient.Version httpVersion = HttpClient.Version.HTTP_2;
+
+  /**
+   * Upper bound of destinations with their own client and meters. Destinations are partly taken
+   * from requests, so it limits what unknown issuers can occupy.
+   */
+  @Builder.Default private int maxDestinations = 64;
+}
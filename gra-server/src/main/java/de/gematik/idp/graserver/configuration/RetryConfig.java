@@ -0,0 +1,62 @@
+/*
+ *  Copyright 2023 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.idp.graserver.configuration;
+
+import java.time.Duration;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+
+/** Settings of retries and hedged requests for GET requests to the federation. */
+@Getter
+@Setter
+@ToString
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class RetryConfig {
+
+  /** Maximum number of attempts of a request, including the first one. */
+  @Builder.Default private int maxAttempts = 3;
+
+  /** Backoff before the first retry, doubled for each further retry. */
+  @Builder.Default private Duration initialBackoff = Duration.ofMillis(100);
+
+  /** Upper limit of the backoff between two attempts. */
+  @Builder.Default private Duration maxBackoff = Duration.ofSeconds(2);
+
+  /**
+   * Retries and hedged requests earned by each request. With 0.1 at most one in ten requests is
+   * sent a second time, so retries cannot multiply the load while the federation is down.
+   */
+  @Builder.Default private double budgetRatio = 0.1;
+
+  /** Maximum number of retries and hedged requests that can be saved up in the budget. */
+  @Builder.Default private int budgetMaxTokens = 10;
+
+  /**
+   * Send a second request if the first one takes longer than 95% of the recent requests to the same
+   * destination.
+   */
+  @Builder.Default private boolean hedging = false;
+
+  /** Minimum time to wait for the first response before a hedged request is sent. */
+  @Builder.Default private Duration hedgingMinDelay = Duration.ofMillis(50);
+}
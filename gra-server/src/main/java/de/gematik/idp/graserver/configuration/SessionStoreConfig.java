@@ -0,0 +1,118 @@
+/*
+ *  Copyright 2023 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.idp.graserver.configuration;
+
+import java.time.Duration;
+import java.util.List;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+
+/** Settings of the storage for App2App auth sessions. */
+@Getter
+@Setter
+@ToString
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class SessionStoreConfig {
+
+  /** Lifetime of a new session until the PAR response (message nr.3) of the Idp-Sektoral. */
+  @Builder.Default private Duration parTimeToLive = Duration.ofMinutes(1);
+
+  /**
+   * Time granted for the user authentication at the Idp-Sektoral. It is added to the expires_in of
+   * the PAR response to get the lifetime of a session.
+   */
+  @Builder.Default private Duration authenticationTimeToLive = Duration.ofMinutes(10);
+
+  /** Upper bound of sessions held at the same time, new sessions are rejected beyond it. */
+  @Builder.Default private int maxSessions = 100000;
+
+  /**
+   * MEMORY keeps sessions on the heap, MAPPED keeps them off-heap in mappedFile so they survive a
+   * restart, REPLICATED shares them between all replicationNodes. STATELESS keeps no sessions at
+   * all, they are encrypted into the state sent to the Idp-Sektoral.
+   */
+  @Builder.Default private SessionStoreType type = SessionStoreType.MEMORY;
+
+  /**
+   * File backing the MAPPED store, required for it. Must lie on a persistent volume, otherwise the
+   * sessions do not survive a restart. Created on first start together with missing directories,
+   * both only accessible by the owner; the sessions in it are encrypted under the
+   * symmetricEncryptionKey.
+   */
+  private String mappedFile;
+
+  /**
+   * Number of fixed-size slots of the MAPPED store. Should leave headroom above maxSessions, probe
+   * chains get long when the table is nearly full.
+   */
+  @Builder.Default private int mappedSlots = 131072;
+
+  /** Size in bytes of one slot of the MAPPED store, larger sessions are rejected. */
+  @Builder.Default private int mappedSlotSize = 2048;
+
+  /** host:port under which the other nodes reach this node, has to be one of replicationNodes. */
+  @Builder.Default private String replicationNodeId = "localhost:7070";
+
+  /**
+   * Address the replication listener of this node binds to. Defaults to the host of
+   * replicationNodeId, so the listener is only reachable where the other nodes expect it.
+   */
+  private String replicationBindAddress;
+
+  /** Port of the replication listener of this node. */
+  @Builder.Default private int replicationPort = 7070;
+
+  /**
+   * Upper bound of open connections to the replication listener, each is served by its own thread.
+   * Every other node pools up to 32 connections to this node.
+   */
+  @Builder.Default private int replicationMaxConnections = 128;
+
+  /** All nodes of the cluster as host:port, including this node. Must be equal on every node. */
+  @Builder.Default private List<String> replicationNodes = List.of("localhost:7070");
+
+  /** Shared secret the nodes authenticate each other with, it is never sent itself. */
+  @ToString.Exclude private String replicationSecret;
+
+  /** Connect and read timeout for calls to other nodes. */
+  @Builder.Default private Duration replicationTimeout = Duration.ofSeconds(2);
+
+  /**
+   * Lifetime of a STATELESS session. Its state is sent before the PAR response arrives, so it has
+   * to cover the expires_in of the PAR response and the user authentication.
+   */
+  @Builder.Default private Duration statelessTimeToLive = Duration.ofMinutes(12);
+
+  /**
+   * Longest state a STATELESS store sends, in characters. The state travels in the PAR and
+   * authorization requests to the Idp-Sektoral, longer sessions are rejected with 400.
+   */
+  @Builder.Default private int statelessMaxStateLength = 1024;
+
+  public enum SessionStoreType {
+    MEMORY,
+    MAPPED,
+    REPLICATED,
+    STATELESS
+  }
+}
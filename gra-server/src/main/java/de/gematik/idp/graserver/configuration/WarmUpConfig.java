@@ -0,0 +1,44 @@
+/*
+ *  Copyright 2023 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.idp.graserver.configuration;
+
+import java.time.Duration;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+
+/** Settings of the federation warm-up after the start of the Fd-Auth-Server. */
+@Getter
+@Setter
+@ToString
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class WarmUpConfig {
+
+  /**
+   * Resolve and verify all Idp-Sektorals of the entity list before the readiness probe reports
+   * ready.
+   */
+  @Builder.Default private boolean enabled = true;
+
+  /** Maximum time the readiness probe waits for the warm-up, afterwards it reports ready anyway. */
+  @Builder.Default private Duration timeout = Duration.ofSeconds(30);
+}
@@ -0,0 +1,163 @@
+/*
+ *  Copyright 2023 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.idp.graserver.controller;
+
+import static de.gematik.idp.IdpConstants.FED_AUTH_ENDPOINT;
+
+import de.gematik.idp.data.ParResponse;
+import de.gematik.idp.data.TokenResponse;
+import de.gematik.idp.graserver.data.AuthSession;
+import de.gematik.idp.graserver.data.IdpMetadata;
+import de.gematik.idp.graserver.services.App2AppFlow;
+import de.gematik.idp.graserver.services.App2AppFlow.PendingPar;
+import de.gematik.idp.graserver.services.App2AppFlow.PendingTokenRequest;
+import de.gematik.idp.graserver.services.EntityStmntIdpsService;
+import de.gematik.idp.graserver.services.IdpCircuitBreakers;
+import de.gematik.idp.graserver.services.SektoralIdpClient;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.Pattern;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.validation.annotation.Validated;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+/** App2App flow that waits for the responses of the Idp-Sektoral on the servlet thread. */
+@RestController
+@Validated
+@RequiredArgsConstructor
+@Slf4j
+@ConditionalOnProperty(
+    value = "fd-auth-server.app2AppMode",
+    havingValue = "blocking",
+    matchIfMissing = true)
+public class App2AppController {
+
+  static final int NONCE_LENGTH_MAX = 512;
+
+  private final EntityStmntIdpsService entityStmntIdpsService;
+  private final SektoralIdpClient sektoralIdpClient;
+  private final IdpCircuitBreakers idpCircuitBreakers;
+  private final App2AppFlow app2AppFlow;
+
+  static void setNoCacheHeader(final HttpServletResponse response) {
+    response.setHeader("Cache-Control", "no-store");
+    response.setHeader("Pragma", "no-cache");
+  }
+
+  /* Federation App2App flow
+   * Request(in)  == message nr.1
+   *                 messages nr.1a ... nr.2b
+   * Response(out)== message nr.4
+   * Parameter "params" is used to filter by HTTP parameters and let spring decide which (multiple mappings of same endpoint) mapping matches.
+   */
+  @GetMapping(value = FED_AUTH_ENDPOINT, params = "redirect_uri")
+  public void getRequestUri(
+      @RequestParam(name = "client_id") @NotEmpty final String frontendClientId,
+      @RequestParam(name = "state") @NotEmpty final String frontendState,
+      @RequestParam(name = "redirect_uri") @NotEmpty final String frontendRedirectUri,
+      @RequestParam(name = "code_challenge") @NotEmpty final String frontendCodeChallenge,
+      @RequestParam(name = "code_challenge_method") @NotEmpty @Pattern(regexp = "S256")
+          final String frontendCodeChallengeMethod,
+      @RequestParam(name = "response_type") @NotEmpty @Pattern(regexp = "code")
+          final String responseType,
+      @RequestParam(name = "nonce", required = false)
+          @Pattern(regexp = "^[_\\-a-zA-Z0-9]{1," + NONCE_LENGTH_MAX + "}$", message = "2007")
+          final String frontendNonce,
+      @RequestParam(name = "scope") @NotEmpty final String scope,
+      @RequestParam(name = "idp_iss") @NotEmpty final String idpIss,
+      final HttpServletResponse respMsgNr4) {
+    log.debug("RX message nr.1, frontendClientId: {}, idpIss: {}", frontendClientId, idpIss);
+
+    // no session for an Idp-Sektoral that is known to be down
+    idpCircuitBreakers.rejectIfOpen(idpIss);
+    final PendingPar pendingPar =
+        app2AppFlow.startSession(
+            AuthSession.builder()
+                .frontendClientId(frontendClientId)
+                .frontendCodeChallenge(frontendCodeChallenge)
+                .frontendCodeChallengeMethod(frontendCodeChallengeMethod)
+                .frontendResponseType(responseType)
+                .frontendScope(scope)
+                .frontendState(frontendState)
+                .frontendRedirectUri(frontendRedirectUri)
+                .frontendNonce(frontendNonce)
+                .idpIss(idpIss));
+
+    final IdpMetadata idpMetadata = entityStmntIdpsService.getIdpMetadata(idpIss);
+
+    final String sekIdpParEndpoint = idpMetadata.pushedAuthorizationRequestEndpoint();
+    log.debug("TX PAR to sekIdpParEndpoint: " + sekIdpParEndpoint);
+    /*
+     * Request(out) == message nr.2 (PAR)
+     * Response(in) == message nr.3
+     */
+    final ParResponse respMsgNr3Body =
+        sektoralIdpClient.sendPar(idpIss, sekIdpParEndpoint, pendingPar.parRequest());
+    final String tokenLocation = app2AppFlow.completePar(pendingPar, idpMetadata, respMsgNr3Body);
+
+    respMsgNr4.setStatus(HttpStatus.FOUND.value());
+    // message nr.4
+    setNoCacheHeader(respMsgNr4);
+    respMsgNr4.setHeader(HttpHeaders.LOCATION, tokenLocation);
+  }
+
+  /* Federation App2App flow
+   * Request(in)  == message nr.9
+   *                Request(out) messages nr.10
+   *                Response(in) messages nr.11
+   * Response(out)== message nr.12
+   * Parameter "params" is used to filter by HTTP parameters and let spring decide which (multiple mappings of same endpoint) mapping matches.
+   */
+  @PostMapping(
+      value = FED_AUTH_ENDPOINT,
+      params = "code",
+      consumes = MediaType.APPLICATION_FORM_URLENCODED_VALUE)
+  public void postAuthorizationCode(
+      @RequestParam(name = "code") @NotEmpty final String authorizationCodeFedIdp,
+      @RequestParam(name = "state") @NotEmpty final String fdAuthServerState,
+      final HttpServletResponse respMsgNr12) {
+    final PendingTokenRequest pendingTokenRequest =
+        app2AppFlow.takeSession(authorizationCodeFedIdp, fdAuthServerState);
+    final String idpIss = pendingTokenRequest.session().getIdpIss();
+    final String sekIdpTokenEndpoint =
+        entityStmntIdpsService.getIdpMetadata(idpIss).tokenEndpoint();
+
+    log.debug("App2App-Flow: TX message nr 10 to {}", sekIdpTokenEndpoint);
+    /*
+     * Request(out) message nr.10
+     * Response(in) message nr.11
+     */
+    final TokenResponse respMsgNr11Body =
+        sektoralIdpClient.sendTokenRequest(
+            idpIss, sekIdpTokenEndpoint, pendingTokenRequest.tokenRequest());
+    final String tokenLocation =
+        app2AppFlow.completeTokenRequest(pendingTokenRequest.session(), respMsgNr11Body);
+
+    // return MsgNr12, Authorization code  (for Token-Endpoint)
+    setNoCacheHeader(respMsgNr12);
+    respMsgNr12.setStatus(HttpStatus.FOUND.value());
+    respMsgNr12.setHeader(HttpHeaders.LOCATION, tokenLocation);
+  }
+}
@@ -23,6 +23,7 @@ import static de.gematik.idp.field.ClaimName.CLIENT_ID;
 import static de.gematik.idp.field.ClaimName.CODE_CHALLENGE;
 import static de.gematik.idp.field.ClaimName.CODE_CHALLENGE_METHOD;
 import static de.gematik.idp.field.ClaimName.DISPLAY_NAME;
+import static de.gematik.idp.field.ClaimName.EXPIRES_AT;
 import static de.gematik.idp.field.ClaimName.FAMILY_NAME;
 import static de.gematik.idp.field.ClaimName.GIVEN_NAME;
 import static de.gematik.idp.field.ClaimName.ID_NUMBER;
@@ -42,14 +43,13 @@ import static de.gematik.idp.field.ClaimName.TELEMATIK_ID;
 import static de.gematik.idp.field.ClaimName.TELEMATIK_ORGANIZATION;
 import static de.gematik.idp.field.ClaimName.TELEMATIK_PROFESSION;
 import static de.gematik.idp.field.ClaimName.TOKEN_TYPE;
-import static de.gematik.idp.field.ClaimName.TYPE;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import de.gematik.idp.IdpConstants;
-import de.gematik.idp.authentication.IdpJwtProcessor;
-import de.gematik.idp.authentication.JwtBuilder;
-import de.gematik.idp.crypto.Nonce;
 import de.gematik.idp.exceptions.IdpJoseException;
 import de.gematik.idp.field.ClaimName;
+import de.gematik.idp.graserver.services.JwsSigner;
+import de.gematik.idp.graserver.services.RandomnessService;
 import de.gematik.idp.token.IdpJwe;
 import de.gematik.idp.token.JsonWebToken;
 import java.security.Key;
@@ -62,9 +62,11 @@ import lombok.AllArgsConstructor;
 @AllArgsConstructor
 public class AuthorizationCodeBuilder {
 
-  private final IdpJwtProcessor jwtProcessorTokenKey;
+  private final JwsSigner jwsSignerTokenKey;
+  private final ObjectMapper objectMapper;
   private final Key encryptionKey;
   private final String issuerUrl;
+  private final RandomnessService randomnessService;
 
   public IdpJwe buildAuthorizationcodeFromSektoralIdToken(
       final JsonWebToken idTokenPlain,
@@ -99,9 +101,9 @@ public class AuthorizationCodeBuilder {
     claimsMap.put(RESPONSE_TYPE.getJoseName(), authSession.getFrontendResponseType());
     claimsMap.put(TOKEN_TYPE.getJoseName(), "code");
     claimsMap.put(AUTH_TIME.getJoseName(), ZonedDateTime.now().toEpochSecond());
-    claimsMap.put(SERVER_NONCE.getJoseName(), Nonce.getNonceAsBase64UrlEncodedString(24));
+    claimsMap.put(SERVER_NONCE.getJoseName(), randomnessService.nonceAsBase64Url(24));
     claimsMap.put(ISSUER.getJoseName(), issuerUrl);
-    claimsMap.put(JWT_ID.getJoseName(), Nonce.getNonceAsHex(IdpConstants.JTI_LENGTH));
+    claimsMap.put(JWT_ID.getJoseName(), randomnessService.nonceAsHex(IdpConstants.JTI_LENGTH));
     claimsMap.put(
         AUTHENTICATION_METHODS_REFERENCE.getJoseName(),
         ((List<?>) idTokenPlain.getBodyClaim(AUTHENTICATION_METHODS_REFERENCE).orElseThrow())
@@ -110,15 +112,9 @@ public class AuthorizationCodeBuilder {
         AUTHENTICATION_CLASS_REFERENCE.getJoseName(),
         idTokenPlain.getBodyClaim(AUTHENTICATION_CLASS_REFERENCE).orElseThrow());
 
-    final Map<String, Object> headerMap = new HashMap<>();
-    headerMap.put(TYPE.getJoseName(), "JWT");
+    claimsMap.put(EXPIRES_AT.getJoseName(), ZonedDateTime.now().plusHours(1).toEpochSecond());
 
-    return jwtProcessorTokenKey
-        .buildJwt(
-            new JwtBuilder()
-                .addAllHeaderClaims(headerMap)
-                .addAllBodyClaims(claimsMap)
-                .expiresAt(ZonedDateTime.now().plusHours(1)))
+    return new JsonWebToken(jwsSignerTokenKey.signJson(objectMapper, claimsMap, "JWT"))
         .encryptAsNjwt(encryptionKey);
   }
 
@@ -0,0 +1,42 @@
+/*
+ *  Copyright 2023 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.idp.graserver.data;
+
+import java.util.Base64;
+import org.apache.commons.codec.digest.DigestUtils;
+
+/**
+ * A JWS served by the Fd-Auth-Server together with what HTTP caches need to store and revalidate
+ * it: a strong ETag over the content and the times of issue and expiry.
+ *
+ * @param content JWS as UTF-8 bytes
+ * @param etag strong entity tag of content (quoted)
+ * @param issuedAt epoch second of the iat claim, 0 if unknown
+ * @param expiresAt epoch second until which caches may serve content without revalidation
+ */
+public record CacheableJws(byte[] content, String etag, long issuedAt, long expiresAt) {
+
+  public static CacheableJws of(final byte[] content, final long issuedAt, final long expiresAt) {
+    return new CacheableJws(content, etagOf(content), issuedAt, expiresAt);
+  }
+
+  public static String etagOf(final byte[] content) {
+    return "\""
+        + Base64.getUrlEncoder().withoutPadding().encodeToString(DigestUtils.sha256(content))
+        + "\"";
+  }
+}
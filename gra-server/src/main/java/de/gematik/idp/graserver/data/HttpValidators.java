@@ -0,0 +1,59 @@
+/*
+ *  Copyright 2023 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.idp.graserver.data;
+
+import kong.unirest.core.GetRequest;
+import kong.unirest.core.HttpResponse;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+
+/**
+ * ETag and Last-Modified of a fetched federation artifact, sent back as If-None-Match and
+ * If-Modified-Since so an unchanged artifact is answered with 304 instead of the full JWS.
+ *
+ * @param etag null if the response had no ETag
+ * @param lastModified null if the response had no Last-Modified
+ */
+public record HttpValidators(String etag, String lastModified) {
+
+  public static final HttpValidators NONE = new HttpValidators(null, null);
+
+  public static HttpValidators of(final HttpResponse<?> response) {
+    return new HttpValidators(
+        StringUtils.trimToNull(response.getHeaders().getFirst(HttpHeaders.ETAG)),
+        StringUtils.trimToNull(response.getHeaders().getFirst(HttpHeaders.LAST_MODIFIED)));
+  }
+
+  public static boolean isNotModified(final HttpResponse<?> response) {
+    return response.getStatus() == HttpStatus.NOT_MODIFIED.value();
+  }
+
+  public boolean isEmpty() {
+    return etag == null && lastModified == null;
+  }
+
+  public GetRequest applyTo(final GetRequest request) {
+    if (etag != null) {
+      request.header(HttpHeaders.IF_NONE_MATCH, etag);
+    }
+    if (lastModified != null) {
+      request.header(HttpHeaders.IF_MODIFIED_SINCE, lastModified);
+    }
+    return request;
+  }
+}
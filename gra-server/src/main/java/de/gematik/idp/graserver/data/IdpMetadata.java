@@ -0,0 +1,75 @@
+/*
+ *  Copyright 2023 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.idp.graserver.data;
+
+import de.gematik.idp.graserver.exceptions.FdAuthServerException;
+import de.gematik.idp.token.JsonWebToken;
+import java.util.Map;
+import org.springframework.http.HttpStatus;
+
+/**
+ * Endpoints of an Idp-Sektoral, extracted once from its verified entity statement so that the
+ * App2App flow reads fields instead of walking the claim maps on every request.
+ *
+ * @param signedJwksUri null if the Idp-Sektoral publishes no signed JWKS
+ */
+public record IdpMetadata(
+    JsonWebToken entityStatement,
+    String authorizationEndpoint,
+    String pushedAuthorizationRequestEndpoint,
+    String tokenEndpoint,
+    String signedJwksUri,
+    long iat,
+    long exp) {
+
+  /**
+   * @throws FdAuthServerException with 400 if a required claim is missing
+   */
+  public static IdpMetadata from(final JsonWebToken entityStatement) {
+    final Map<String, Object> bodyClaims = entityStatement.getBodyClaims();
+    final Map<String, Object> metadata = getInnerClaimMap(bodyClaims, "metadata");
+    final Map<String, Object> openidProvider = getInnerClaimMap(metadata, "openid_provider");
+    final Long exp = (Long) requireClaim(bodyClaims, "exp");
+    final Long iat = (Long) bodyClaims.getOrDefault("iat", exp);
+    return new IdpMetadata(
+        entityStatement,
+        getClaim(openidProvider, "authorization_endpoint"),
+        getClaim(openidProvider, "pushed_authorization_request_endpoint"),
+        getClaim(openidProvider, "token_endpoint"),
+        (String) openidProvider.get("signed_jwks_uri"),
+        iat,
+        exp);
+  }
+
+  private static String getClaim(final Map<String, Object> claimMap, final String key) {
+    return (String) requireClaim(claimMap, key);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Map<String, Object> getInnerClaimMap(
+      final Map<String, Object> claimMap, final String key) {
+    return (Map<String, Object>) requireClaim(claimMap, key);
+  }
+
+  private static Object requireClaim(final Map<String, Object> claimMap, final String key) {
+    final Object claim = claimMap.get(key);
+    if (claim == null) {
+      throw new FdAuthServerException("missing claim: " + key, HttpStatus.BAD_REQUEST);
+    }
+    return claim;
+  }
+}
@@ -0,0 +1,180 @@
+/*
+ *  Copyright 2023 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.idp.graserver.services;
+
+import de.gematik.idp.data.FederationPrivKey;
+import de.gematik.idp.data.ParResponse;
+import de.gematik.idp.data.TokenResponse;
+import de.gematik.idp.graserver.ServerUrlService;
+import de.gematik.idp.graserver.configuration.FdAuthServerConfiguration;
+import de.gematik.idp.graserver.data.AuthSession;
+import de.gematik.idp.graserver.data.AuthorizationCodeBuilder;
+import de.gematik.idp.graserver.data.IdpMetadata;
+import de.gematik.idp.graserver.exceptions.FdAuthServerException;
+import de.gematik.idp.graserver.services.RandomnessService.SessionSecrets;
+import de.gematik.idp.graserver.services.SektoralIdpClient.ParRequest;
+import de.gematik.idp.graserver.services.SektoralIdpClient.TokenRequest;
+import de.gematik.idp.graserver.session.AuthSessionStore;
+import de.gematik.idp.token.IdpJwe;
+import de.gematik.idp.token.JsonWebToken;
+import de.gematik.idp.token.TokenClaimExtraction;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.Objects;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+
+/**
+ * Steps of the App2App flow between the requests to the Idp-Sektoral. They are shared by the
+ * blocking and the non-blocking App2App controller, which only differ in how they wait for the
+ * Idp-Sektoral.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class App2AppFlow {
+
+  @Autowired FederationPrivKey encPrivKey;
+
+  private final ServerUrlService serverUrlService;
+  private final EntityStmntIdpsService entityStmntIdpsService;
+  private final AuthorizationCodeBuilder authorizationCodeBuilder;
+  private final FdAuthServerConfiguration fdAuthServerConfiguration;
+  private final AuthSessionStore authSessionStore;
+  private final RandomnessService randomnessService;
+
+  /**
+   * Message nr.1: stores a new session for the request of the frontend.
+   *
+   * @return the session and the PAR (message nr.2) to send to the Idp-Sektoral
+   */
+  public PendingPar startSession(final AuthSession.AuthSessionBuilder frontendSession) {
+    final SessionSecrets secrets = randomnessService.takeSessionSecrets();
+    final AuthSession session =
+        frontendSession
+            .fdAuthServerCodeVerifier(secrets.fdAuthServerCodeVerifier()) // top secret
+            .build();
+    final String fdAuthServerState =
+        authSessionStore.create(
+            session,
+            fdAuthServerConfiguration.getSessionStore().getParTimeToLive(),
+            secrets.fdAuthServerState());
+    log.debug(
+        "New FdAuthServer Auth Session stored. Idp-Sektoral(idpIss): {}, amount of sessions now:"
+            + " {}",
+        session.getIdpIss(),
+        authSessionStore.size());
+    return new PendingPar(
+        session,
+        new ParRequest(
+            serverUrlService.determineServerUrl(),
+            fdAuthServerState,
+            secrets.fdAuthServerCodeChallenge(),
+            secrets.fdAuthServerNonce()));
+  }
+
+  /**
+   * Message nr.3: keeps the session until the request_uri expired and the user authenticated.
+   *
+   * @return the location of the authorization request at the Idp-Sektoral (message nr.4)
+   */
+  public String completePar(
+      final PendingPar pendingPar,
+      final IdpMetadata idpMetadata,
+      final ParResponse respMsgNr3Body) {
+    final String fdAuthServerUrl = pendingPar.parRequest().fdAuthServerUrl();
+    log.debug("RX message nr.3 at: {}", fdAuthServerUrl);
+    /* ParResponse example: {"request_uri":"urn:http://127.0.0.1:8084:4434f963244b9f0f","expires_in":90} */
+    final String requestUri =
+        Objects.requireNonNull(respMsgNr3Body.getRequestUri(), "request_uri not found");
+    authSessionStore.put(
+        pendingPar.parRequest().fdAuthServerState(),
+        pendingPar.session(),
+        Duration.ofSeconds(respMsgNr3Body.getExpiresIn())
+            .plus(fdAuthServerConfiguration.getSessionStore().getAuthenticationTimeToLive()));
+    final String tokenLocation =
+        LocationBuilder.createLocationForAuthorizationRequest(
+            idpMetadata.authorizationEndpoint(), fdAuthServerUrl, requestUri);
+    log.debug("tokenLocation: {}", tokenLocation);
+    return tokenLocation;
+  }
+
+  /**
+   * Message nr.9: takes the session the authorization code of the Idp-Sektoral belongs to.
+   *
+   * @return the session and the token request (message nr.10) to send to the Idp-Sektoral
+   */
+  public PendingTokenRequest takeSession(
+      final String authorizationCodeFedIdp, final String fdAuthServerState) {
+    final String thisServerUrl = serverUrlService.determineServerUrl();
+    log.debug(
+        "App2App-Flow: RX message nr 9 (Authorization Code) at {}\n code: {} state: {}",
+        thisServerUrl,
+        authorizationCodeFedIdp,
+        fdAuthServerState);
+    final AuthSession session =
+        authSessionStore
+            .remove(fdAuthServerState)
+            .orElseThrow(
+                () ->
+                    new FdAuthServerException(
+                        "Content of parameter state is unknown.", HttpStatus.BAD_REQUEST));
+    return new PendingTokenRequest(
+        session,
+        new TokenRequest(
+            thisServerUrl, authorizationCodeFedIdp, session.getFdAuthServerCodeVerifier()));
+  }
+
+  /**
+   * Message nr.11: decrypts and verifies the ID_TOKEN of the Idp-Sektoral.
+   *
+   * @return the location carrying the authorization code for the frontend (message nr.12)
+   */
+  public String completeTokenRequest(
+      final AuthSession session, final TokenResponse respMsgNr11Body) {
+    log.debug(
+        "App2App-Flow: RX message nr 11 (ID_TOKEN + ACCESS_TOKEN), body: \n{}", respMsgNr11Body);
+    final JsonWebToken idTokenEncrypted = new JsonWebToken(respMsgNr11Body.getIdToken());
+    final IdpJwe idpJwe = new IdpJwe(idTokenEncrypted.getRawString());
+    final JsonWebToken idTokenDecrypted =
+        idpJwe.decryptJwt(encPrivKey.getIdentity().getPrivateKey());
+
+    verifyIdToken(idTokenDecrypted);
+
+    final IdpJwe authorizationCodeJwe =
+        authorizationCodeBuilder.buildAuthorizationcodeFromSektoralIdToken(
+            idTokenDecrypted, ZonedDateTime.now(), session);
+    return LocationBuilder.createLocationForAuthorizationCode(
+        session.getFrontendRedirectUri(),
+        authorizationCodeJwe.getRawString(),
+        session.getFrontendState());
+  }
+
+  private void verifyIdToken(final JsonWebToken idToken) {
+    final String tokenSigKeyId = (String) idToken.getHeaderClaims().get("kid");
+    final String iss =
+        (String) TokenClaimExtraction.extractClaimsFromJwtBody(idToken.getRawString()).get("iss");
+    idToken.verify(entityStmntIdpsService.getIdTokenSigKey(iss, tokenSigKeyId));
+  }
+
+  public record PendingPar(AuthSession session, ParRequest parRequest) {}
+
+  public record PendingTokenRequest(AuthSession session, TokenRequest tokenRequest) {}
+}
@@ -0,0 +1,142 @@
+/*
+ *  Copyright 2023 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.idp.graserver.services;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Concurrent map of at most maxSize entries, for state kept per destination or issuer taken from
+ * requests. Once full, a new entry replaces the least recently used one that may be evicted; if
+ * none may, the new entry is not added. Lookups of present keys take no lock.
+ *
+ * <p>isEvictable is asked in least recently used order until it accepts an entry, so it may claim
+ * that entry for eviction atomically.
+ */
+class BoundedLruMap<K, V> {
+
+  private final int maxSize;
+  private final Predicate<V> isEvictable;
+  private final Consumer<V> onEviction;
+  private final Map<K, Entry<V>> entries = new ConcurrentHashMap<>();
+  private final ReentrantLock insertLock = new ReentrantLock();
+
+  BoundedLruMap(final int maxSize, final Predicate<V> isEvictable, final Consumer<V> onEviction) {
+    this.maxSize = maxSize;
+    this.isEvictable = isEvictable;
+    this.onEviction = onEviction;
+  }
+
+  BoundedLruMap(final int maxSize) {
+    this(maxSize, value -> true, value -> {});
+  }
+
+  Optional<V> get(final K key) {
+    final Entry<V> entry = entries.get(key);
+    if (entry == null) {
+      return Optional.empty();
+    }
+    entry.touch();
+    return Optional.of(entry.value);
+  }
+
+  /**
+   * The value for key, created by factory if absent.
+   *
+   * @return empty if the map is full and no entry may be evicted
+   */
+  Optional<V> computeIfAbsent(final K key, final Function<K, V> factory) {
+    final Optional<V> present = get(key);
+    if (present.isPresent()) {
+      return present;
+    }
+    insertLock.lock();
+    try {
+      final Entry<V> entry = entries.get(key);
+      if (entry != null) {
+        entry.touch();
+        return Optional.of(entry.value);
+      }
+      if (entries.size() >= maxSize && !evictLeastRecentlyUsed()) {
+        return Optional.empty();
+      }
+      final V value = factory.apply(key);
+      entries.put(key, new Entry<>(value));
+      return Optional.of(value);
+    } finally {
+      insertLock.unlock();
+    }
+  }
+
+  Collection<V> values() {
+    return entries.values().stream().map(entry -> entry.value).toList();
+  }
+
+  int size() {
+    return entries.size();
+  }
+
+  void clear() {
+    insertLock.lock();
+    try {
+      entries.values().forEach(entry -> onEviction.accept(entry.value));
+      entries.clear();
+    } finally {
+      insertLock.unlock();
+    }
+  }
+
+  private boolean evictLeastRecentlyUsed() {
+    // lookups keep touching entries, so the order is taken from a snapshot of their use times
+    final List<Candidate<K, V>> candidates = new ArrayList<>(entries.size());
+    entries.forEach(
+        (key, entry) -> candidates.add(new Candidate<>(key, entry.value, entry.lastUsedNanos)));
+    candidates.sort((a, b) -> Long.signum(a.lastUsedNanos() - b.lastUsedNanos()));
+    for (final Candidate<K, V> candidate : candidates) {
+      if (isEvictable.test(candidate.value())) {
+        entries.remove(candidate.key());
+        onEviction.accept(candidate.value());
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private record Candidate<K, V>(K key, V value, long lastUsedNanos) {}
+
+  private static final class Entry<V> {
+
+    private final V value;
+    private volatile long lastUsedNanos = System.nanoTime();
+
+    private Entry(final V value) {
+      this.value = value;
+    }
+
+    void touch() {
+      lastUsedNanos = System.nanoTime();
+    }
+  }
+}
@@ -16,7 +16,6 @@
 
 package de.gematik.idp.graserver.services;
 
-import de.gematik.idp.crypto.Nonce;
 import de.gematik.idp.graserver.data.ClientAssertion;
 import java.time.ZonedDateTime;
 import lombok.RequiredArgsConstructor;
@@ -27,6 +26,8 @@ public class ClientAssertionBuilder {
   private static final int JTI_MAX_LENGTH = 32;
   private static final int JWT_TTL_SECS = 90;
 
+  private final RandomnessService randomnessService;
+
   public ClientAssertion buildClientAssertion(
       final String serverUrl, final String sekIdpAuthEndpoint) {
     final ZonedDateTime currentTime = ZonedDateTime.now();
@@ -34,7 +35,7 @@ public class ClientAssertionBuilder {
         .iss(serverUrl)
         .sub(serverUrl)
         .aud(sekIdpAuthEndpoint)
-        .jti(Nonce.getNonceAsHex(JTI_MAX_LENGTH))
+        .jti(randomnessService.nonceAsHex(JTI_MAX_LENGTH))
         .exp(currentTime.plusSeconds(JWT_TTL_SECS).toEpochSecond())
         .iat(currentTime.toEpochSecond())
         .build();
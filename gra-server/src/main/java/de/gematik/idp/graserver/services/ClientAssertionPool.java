@@ -0,0 +1,144 @@
+/*
+ *  Copyright 2023 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.idp.graserver.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.gematik.idp.graserver.configuration.ClientAssertionPoolConfig;
+import de.gematik.idp.graserver.configuration.FdAuthServerConfiguration;
+import de.gematik.idp.graserver.data.ClientAssertion;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+/**
+ * Signed client assertions for the token requests (message nr.10), prepared in the background for
+ * every known token endpoint. Each assertion is handed out only once; assertions close to expiry
+ * are discarded. If no prepared assertion is left, one is signed during the request.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class ClientAssertionPool {
+
+  private final JwsSigner jwsSignerEsSigPrivKey;
+  private final ObjectMapper objectMapper;
+  private final ClientAssertionBuilder clientAssertionBuilder;
+  private final FdAuthServerConfiguration fdAuthServerConfiguration;
+  private final Executor applicationTaskExecutor;
+
+  private final Map<Audience, Pool> pools = new ConcurrentHashMap<>();
+
+  /** Returns an unused client assertion of serverUrl for the token endpoint of an Idp-Sektoral. */
+  public String take(final String serverUrl, final String sekIdpTokenEndpoint) {
+    final Audience audience = new Audience(serverUrl, sekIdpTokenEndpoint);
+    if (!fdAuthServerConfiguration.getClientAssertionPool().isEnabled()) {
+      return sign(audience).jws();
+    }
+    final Pool pool = pools.computeIfAbsent(audience, key -> new Pool());
+    final long usableUntilMillis = usableUntilMillis();
+    SignedClientAssertion assertion;
+    while ((assertion = pool.assertions().poll()) != null
+        && assertion.expiresAtMillis() < usableUntilMillis) {
+      log.debug("Discarded pre-signed client assertion for {}", sekIdpTokenEndpoint);
+    }
+    refillInBackground(audience, pool);
+    return assertion != null ? assertion.jws() : sign(audience).jws();
+  }
+
+  /** Starts preparing client assertions for a token endpoint before its first token request. */
+  public void register(final String serverUrl, final String sekIdpTokenEndpoint) {
+    if (fdAuthServerConfiguration.getClientAssertionPool().isEnabled()) {
+      final Audience audience = new Audience(serverUrl, sekIdpTokenEndpoint);
+      refillInBackground(audience, pools.computeIfAbsent(audience, key -> new Pool()));
+    }
+  }
+
+  /** Replaces discarded and used client assertions of all known token endpoints. */
+  @Scheduled(fixedDelay = 5, timeUnit = TimeUnit.SECONDS)
+  public void refill() {
+    pools.forEach(this::refill);
+  }
+
+  int available(final String serverUrl, final String sekIdpTokenEndpoint) {
+    final Pool pool = pools.get(new Audience(serverUrl, sekIdpTokenEndpoint));
+    return pool == null ? 0 : pool.assertions().size();
+  }
+
+  private void refillInBackground(final Audience audience, final Pool pool) {
+    if (!pool.refilling().get()) {
+      applicationTaskExecutor.execute(() -> refill(audience, pool));
+    }
+  }
+
+  private void refill(final Audience audience, final Pool pool) {
+    if (!pool.refilling().compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      final ClientAssertionPoolConfig config = fdAuthServerConfiguration.getClientAssertionPool();
+      final long usableUntilMillis = usableUntilMillis();
+      // oldest first, so only the head can be outdated
+      SignedClientAssertion head;
+      while ((head = pool.assertions().peek()) != null
+          && head.expiresAtMillis() < usableUntilMillis) {
+        pool.assertions().remove(head);
+      }
+      while (pool.assertions().size() < config.getSize()) {
+        pool.assertions().add(sign(audience));
+      }
+    } catch (final RuntimeException e) {
+      log.warn(
+          "Pre-signing client assertion for {} failed: {}",
+          audience.tokenEndpoint(),
+          e.getMessage());
+    } finally {
+      pool.refilling().set(false);
+    }
+  }
+
+  private SignedClientAssertion sign(final Audience audience) {
+    final ClientAssertion clientAssertion =
+        clientAssertionBuilder.buildClientAssertion(audience.serverUrl(), audience.tokenEndpoint());
+    return new SignedClientAssertion(
+        jwsSignerEsSigPrivKey.signJson(objectMapper, clientAssertion, "JWT"),
+        TimeUnit.SECONDS.toMillis(clientAssertion.getExp()));
+  }
+
+  private long usableUntilMillis() {
+    return System.currentTimeMillis()
+        + fdAuthServerConfiguration.getClientAssertionPool().getMinRemainingLifetime().toMillis();
+  }
+
+  private record Audience(String serverUrl, String tokenEndpoint) {}
+
+  private record SignedClientAssertion(String jws, long expiresAtMillis) {}
+
+  private record Pool(Queue<SignedClientAssertion> assertions, AtomicBoolean refilling) {
+
+    Pool() {
+      this(new ConcurrentLinkedQueue<>(), new AtomicBoolean());
+    }
+  }
+}
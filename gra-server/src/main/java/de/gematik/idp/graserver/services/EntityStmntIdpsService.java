@@ -18,6 +18,9 @@ package de.gematik.idp.graserver.services;
 
 import de.gematik.idp.IdpConstants;
 import de.gematik.idp.graserver.ServerUrlService;
+import de.gematik.idp.graserver.configuration.FdAuthServerConfiguration;
+import de.gematik.idp.graserver.data.HttpValidators;
+import de.gematik.idp.graserver.data.IdpMetadata;
 import de.gematik.idp.graserver.exceptions.FdAuthServerException;
 import de.gematik.idp.token.JsonWebToken;
 import de.gematik.idp.token.TokenClaimExtraction;
@@ -26,14 +29,20 @@ import java.time.Instant;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.util.*;
-
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Predicate;
 import kong.unirest.core.HttpResponse;
-import kong.unirest.core.Unirest;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.jose4j.jwk.JsonWebKeySet;
 import org.jose4j.lang.JoseException;
 import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 @Service
@@ -44,73 +53,136 @@ public class EntityStmntIdpsService {
   private final ResourceReader resourceReader;
   private final ServerUrlService serverUrlService;
   private final PublicKey fedmasterSigKey;
+  private final FdAuthServerConfiguration fdAuthServerConfiguration;
+  private final VerifiedJwsCache verifiedJwsCache;
+  private final OutboundClientRegistry outboundClientRegistry;
+  private final IdpCircuitBreakers idpCircuitBreakers;
+  private final RetryingGetExecutor retryingGetExecutor;
 
-  /** Entity statements of Idp-Sektorals. Delivered by respective Idp-Sektoral. */
-  private static final Map<String, JsonWebToken> ENTITY_STATEMENTS_IDP = new HashMap<>();
+  /**
+   * Entity statements of Idp-Sektorals with their extracted endpoints. Delivered by respective
+   * Idp-Sektoral. Concurrent requests for an expired statement share a single fetch.
+   */
+  private final SingleFlightCache<String, IdpMetadata> entityStatementsIdp =
+      new SingleFlightCache<>(idpMetadata -> !isExpired(idpMetadata.exp()));
 
   /** Entity statements about all Idp-Sektorals. Delivered by Fedmaster. */
-  private static final Map<String, JsonWebToken> ENTITY_STATEMENTS_FEDMASTER_ABOUT_IDP =
-      new HashMap<>();
+  private final SingleFlightCache<String, JsonWebToken> entityStatementsFedmasterAboutIdp =
+      new SingleFlightCache<>(entityStmnt -> !stmntIsEpired(entityStmnt));
+
+  /** Signed JWKS of Idp-Sektorals, used to verify their ID tokens. */
+  private final SingleFlightCache<String, SignedJwks> signedJwksIdp =
+      new SingleFlightCache<>(this::isFresh);
+
+  /** Keys of the signed JWKS per Idp-Sektoral and kid. */
+  private final PublicKeyIndex<JsonWebKeySet> idTokenSigKeys = new PublicKeyIndex<>(jwks -> jwks);
+
+  /** Keys the Fedmaster attests for each Idp-Sektoral, verifying its entity statement. */
+  private final PublicKeyIndex<JsonWebToken> entityStatementSigKeys =
+      new PublicKeyIndex<>(
+          entityStmnt -> TokenClaimExtraction.extractJwksFromBody(entityStmnt.getRawString()));
+
+  /**
+   * Validators of the responses the cached entries were built from, per Idp-Sektoral. Refreshes
+   * send them, a 304 keeps the verified entry without parsing or verifying it again.
+   */
+  private final Map<String, HttpValidators> entityStatementIdpValidators =
+      new ConcurrentHashMap<>();
+
+  private final Map<String, HttpValidators> entityStatementAboutIdpValidators =
+      new ConcurrentHashMap<>();
+  private final Map<String, HttpValidators> signedJwksIdpValidators = new ConcurrentHashMap<>();
+
+  /** Time of the last fetch of the signed JWKS per Idp-Sektoral caused by an unknown kid. */
+  private final Map<String, AtomicLong> lastKidMissRefetch = new ConcurrentHashMap<>();
 
   public void clearEntityStatements() {
-    ENTITY_STATEMENTS_IDP.clear();
-    ENTITY_STATEMENTS_FEDMASTER_ABOUT_IDP.clear();
+    entityStatementsIdp.clear();
+    entityStatementsFedmasterAboutIdp.clear();
+    signedJwksIdp.clear();
+    entityStatementIdpValidators.clear();
+    entityStatementAboutIdpValidators.clear();
+    signedJwksIdpValidators.clear();
+    lastKidMissRefetch.clear();
+    idTokenSigKeys.clear();
+    entityStatementSigKeys.clear();
+    verifiedJwsCache.clear();
   }
 
   void putEntityStatementIdp(final String issuer, final JsonWebToken entityStatement) {
-    ENTITY_STATEMENTS_IDP.put(issuer, entityStatement);
+    entityStatementsIdp.put(issuer, IdpMetadata.from(entityStatement));
+  }
+
+  void putIdpMetadata(final String issuer, final IdpMetadata idpMetadata) {
+    entityStatementsIdp.put(issuer, idpMetadata);
   }
 
   void putEntityStatementAboutIdp(final String issuer, final JsonWebToken entityStatement) {
-    ENTITY_STATEMENTS_FEDMASTER_ABOUT_IDP.put(issuer, entityStatement);
+    entityStatementsFedmasterAboutIdp.put(issuer, entityStatement);
   }
 
   public JsonWebToken getEntityStatementIdp(final String issuer) {
-    log.info("Entitystatement for IDP {} requested.", issuer);
-    updateStatementIdpIfExpiredAndNewIsAvailable(issuer);
-    return ENTITY_STATEMENTS_IDP.get(issuer);
+    return getIdpMetadata(issuer).entityStatement();
   }
 
-  public String getAuthorizationEndpoint(final JsonWebToken entityStmnt) {
-    final Map<String, Object> bodyClaims = entityStmnt.getBodyClaims();
-    final Map<String, Object> metadata = getInnerClaimMap(bodyClaims, "metadata");
-    final Map<String, Object> openidProvider = getInnerClaimMap(metadata, "openid_provider");
-    return Objects.requireNonNull(
-        (String) openidProvider.get("authorization_endpoint"),
-        "missing claim: authorization_endpoint");
+  public IdpMetadata getIdpMetadata(final String issuer) {
+    log.info("Entitystatement for IDP {} requested.", issuer);
+    return entityStatementsIdp.get(issuer, this::fetchEntityStatementIdp);
   }
 
-  public String getPushedAuthorizationEndpoint(final JsonWebToken entityStmnt) {
-    final Map<String, Object> bodyClaims = entityStmnt.getBodyClaims();
-    final Map<String, Object> metadata = getInnerClaimMap(bodyClaims, "metadata");
-    final Map<String, Object> openidProvider = getInnerClaimMap(metadata, "openid_provider");
-    return Objects.requireNonNull(
-        (String) openidProvider.get("pushed_authorization_request_endpoint"),
-        "missing claim: pushed_authorization_request_endpoint");
+  /** Like getIdpMetadata, but a statement that has to be fetched is fetched on executor. */
+  public CompletableFuture<IdpMetadata> getIdpMetadataAsync(
+      final String issuer, final Executor executor) {
+    log.info("Entitystatement for IDP {} requested.", issuer);
+    return entityStatementsIdp.getAsync(issuer, this::fetchEntityStatementIdp, executor);
   }
 
-  public String getTokenEndpoint(final JsonWebToken entityStmnt) {
-    final Map<String, Object> bodyClaims = entityStmnt.getBodyClaims();
-    final Map<String, Object> metadata = getInnerClaimMap(bodyClaims, "metadata");
-    final Map<String, Object> openidProvider = getInnerClaimMap(metadata, "openid_provider");
-    return Objects.requireNonNull(
-        (String) openidProvider.get("token_endpoint"), "missing claim: token_endpoint");
+  /**
+   * Refreshes every cached entity statement once entityStatementRefreshFraction of its lifetime has
+   * passed, so requests find a valid statement without fetching it themselves. A failed refresh
+   * keeps the old statement until it expires.
+   */
+  @Scheduled(fixedDelay = 10, timeUnit = TimeUnit.SECONDS)
+  public void refreshEntityStatementsAhead() {
+    // statements about the Idp-Sektorals first, they verify the statements of the Idp-Sektorals
+    refreshDueStatements(
+        entityStatementsFedmasterAboutIdp,
+        this::fetchEntityStatementAboutIdp,
+        entityStmnt -> {
+          final Map<String, Object> bodyClaims = entityStmnt.getBodyClaims();
+          final Long exp = (Long) bodyClaims.get("exp");
+          return isDueForRefresh((Long) bodyClaims.getOrDefault("iat", exp), exp);
+        });
+    refreshDueStatements(
+        entityStatementsIdp,
+        this::fetchEntityStatementIdp,
+        idpMetadata -> isDueForRefresh(idpMetadata.iat(), idpMetadata.exp()));
   }
 
-  @SuppressWarnings("unchecked")
-  private Map<String, Object> getInnerClaimMap(
-      final Map<String, Object> claimMap, final String key) {
-    return Objects.requireNonNull((Map<String, Object>) claimMap.get(key), "missing claim: " + key);
+  private <V> void refreshDueStatements(
+      final SingleFlightCache<String, V> cache,
+      final Function<String, V> fetchStatement,
+      final Predicate<V> isDueForRefresh) {
+    for (final String issuer : cache.keys()) {
+      if (cache.peek(issuer).filter(isDueForRefresh).isEmpty()) {
+        continue;
+      }
+      try {
+        cache.refresh(issuer, fetchStatement);
+        log.debug("Entity statement of {} refreshed ahead of expiry", issuer);
+      } catch (final RuntimeException e) {
+        log.warn("Refreshing entity statement of {} failed: {}", issuer, e.getMessage());
+      }
+    }
   }
 
-  private void updateStatementIdpIfExpiredAndNewIsAvailable(final String issuer) {
-    if (ENTITY_STATEMENTS_IDP.containsKey(issuer)) {
-      if (stmntIsEpired(ENTITY_STATEMENTS_IDP.get(issuer))) {
-        fetchEntityStatementIdp(issuer);
-      }
-      return;
+  private boolean isDueForRefresh(final long iat, final long exp) {
+    if (iat >= exp) {
+      return isExpired(exp);
     }
-    fetchEntityStatementIdp(issuer);
+    final double refreshFraction =
+        fdAuthServerConfiguration.getCache().getEntityStatementRefreshFraction();
+    return isExpired(iat + (long) ((exp - iat) * refreshFraction));
   }
 
   private boolean stmntIsEpired(final JsonWebToken entityStmnt) {
@@ -126,14 +198,32 @@ public class EntityStmntIdpsService {
     return currentUtcTime.isAfter(expiredUtcTime);
   }
 
-  private void fetchEntityStatementIdp(final String issuer) {
+  private IdpMetadata fetchEntityStatementIdp(final String issuer) {
     log.debug("Fetch EntityStatement from: {}", issuer);
+    final HttpValidators validators =
+        validatorsOf(
+            entityStatementsIdp,
+            entityStatementIdpValidators,
+            issuer,
+            idpMetadata -> !isExpired(idpMetadata.exp()));
     final HttpResponse<String> resp =
-        Unirest.get(issuer + IdpConstants.ENTITY_STATEMENT_ENDPOINT).asString();
+        idpCircuitBreakers.call(
+            issuer,
+            () ->
+                retryingGetExecutor.get(
+                    () ->
+                        validators.applyTo(
+                            outboundClientRegistry.get(
+                                issuer + IdpConstants.ENTITY_STATEMENT_ENDPOINT))));
+    if (HttpValidators.isNotModified(resp) && !validators.isEmpty()) {
+      return unchanged(entityStatementsIdp, issuer);
+    }
     if (resp.getStatus() == HttpStatus.OK.value()) {
       final JsonWebToken entityStmnt = new JsonWebToken(resp.getBody());
       verifyEntityStmntIdp(entityStmnt);
-      ENTITY_STATEMENTS_IDP.put(issuer, entityStmnt);
+      final IdpMetadata idpMetadata = IdpMetadata.from(entityStmnt);
+      entityStatementIdpValidators.put(issuer, HttpValidators.of(resp));
+      return idpMetadata;
     } else {
       log.info(resp.getBody());
       throw new FdAuthServerException(
@@ -152,38 +242,49 @@ public class EntityStmntIdpsService {
             TokenClaimExtraction.extractClaimsFromJwtBody(entityStmnt.getRawString()).get("iss");
     final String keyIdSigEntStmnt = (String) entityStmnt.getHeaderClaims().get("kid");
     final JsonWebToken esAboutRp = getEntityStatementAboutIdp(iss);
-    final JsonWebKeySet jwks = TokenClaimExtraction.extractJwksFromBody(esAboutRp.getRawString());
-    entityStmnt.verify(TokenClaimExtraction.getECPublicKey(jwks, keyIdSigEntStmnt));
+    verifiedJwsCache.verify(
+        entityStmnt,
+        entityStatementSigKeys
+            .find(iss, esAboutRp, keyIdSigEntStmnt)
+            .orElseThrow(
+                () ->
+                    new FdAuthServerException(
+                        "Key " + keyIdSigEntStmnt + " of IDP [" + iss + "] unknown at Fedmaster",
+                        HttpStatus.BAD_REQUEST)));
   }
 
   public JsonWebToken getEntityStatementAboutIdp(final String sub) {
-    updateStatementAboutIdpIfExpiredAndNewIsAvailable(sub);
-    return ENTITY_STATEMENTS_FEDMASTER_ABOUT_IDP.get(sub);
-  }
-
-  private void updateStatementAboutIdpIfExpiredAndNewIsAvailable(final String sub) {
-    if (ENTITY_STATEMENTS_FEDMASTER_ABOUT_IDP.containsKey(sub)) {
-      if (stmntIsEpired(ENTITY_STATEMENTS_FEDMASTER_ABOUT_IDP.get(sub))) {
-        fetchEntityStatementAboutIdp(sub);
-      }
-      return;
-    }
-    fetchEntityStatementAboutIdp(sub);
+    return entityStatementsFedmasterAboutIdp.get(sub, this::fetchEntityStatementAboutIdp);
   }
 
-  private void fetchEntityStatementAboutIdp(final String sub) {
+  private JsonWebToken fetchEntityStatementAboutIdp(final String sub) {
     final String entityIdentifierFedmaster = serverUrlService.determineFedmasterUrl();
     log.info("FedmasterUrl: " + entityIdentifierFedmaster);
+    final String fetchEndpoint = serverUrlService.determineFetchEntityStatementEndpoint();
+    final HttpValidators validators =
+        validatorsOf(
+            entityStatementsFedmasterAboutIdp,
+            entityStatementAboutIdpValidators,
+            sub,
+            entityStmnt -> !stmntIsEpired(entityStmnt));
     final HttpResponse<String> resp =
-        Unirest.get(serverUrlService.determineFetchEntityStatementEndpoint())
-            .queryString("iss", entityIdentifierFedmaster)
-            .queryString("sub", sub)
-            .asString();
+        retryingGetExecutor.get(
+            () ->
+                validators.applyTo(
+                    outboundClientRegistry
+                        .get(fetchEndpoint)
+                        .queryString("iss", entityIdentifierFedmaster)
+                        .queryString("sub", sub)));
+    if (HttpValidators.isNotModified(resp) && !validators.isEmpty()) {
+      return unchanged(entityStatementsFedmasterAboutIdp, sub);
+    }
     if (resp.getStatus() == HttpStatus.OK.value()) {
       final JsonWebToken entityStatementAboutIdp = new JsonWebToken(resp.getBody());
       log.debug("EntityStatementAboutIdp: {}", entityStatementAboutIdp.getRawString());
-      entityStatementAboutIdp.verify(fedmasterSigKey);
-      ENTITY_STATEMENTS_FEDMASTER_ABOUT_IDP.put(sub, entityStatementAboutIdp);
+      verifiedJwsCache.verify(entityStatementAboutIdp, fedmasterSigKey);
+      entityStatementSigKeys.index(sub, entityStatementAboutIdp);
+      entityStatementAboutIdpValidators.put(sub, HttpValidators.of(resp));
+      return entityStatementAboutIdp;
     } else {
       log.info(resp.getBody());
       throw new FdAuthServerException(
@@ -197,22 +298,113 @@ public class EntityStmntIdpsService {
           HttpStatus.BAD_REQUEST);
     }
   }
+
   public JsonWebKeySet getSignedJwksIdp(final String issuer) {
-     final JsonWebToken entityStmntIdp = getEntityStatementIdp(issuer);
-     final Optional<String> signedJwksUri = serverUrlService.determineSignedJwksUri(entityStmntIdp);
-     if (signedJwksUri.isPresent()) {
-         final HttpResponse<String> resp = Unirest.get(signedJwksUri.get()).asString();
-         if (resp.isSuccess()) {
-             // TODO check signature
-             try {
-                 return new JsonWebKeySet(new JsonWebToken(resp.getBody()).getPayloadDecoded());
-             } catch (JoseException e) {
-                 throw new FdAuthServerException(e);
-             }
-         }
-         throw new FdAuthServerException("Error while fetching the IDP's signed_jwks", HttpStatus.INTERNAL_SERVER_ERROR);
-     }
-     throw new FdAuthServerException("No signed_jwks_uri found in IDP entity statement", HttpStatus.INTERNAL_SERVER_ERROR);
+    return signedJwksIdp.get(issuer, this::fetchSignedJwksIdp).jwks();
+  }
+
+  /**
+   * Key with keyId from the signed JWKS of the Idp-Sektoral, used to verify its ID tokens. If the
+   * cached JWKS lacks keyId, e.g. after a key rollover, it is fetched again, at most once per
+   * signedJwksIdpKidMissRefetchInterval.
+   */
+  public PublicKey getIdTokenSigKey(final String issuer, final String keyId) {
+    final JsonWebKeySet jwks = getSignedJwksIdp(issuer);
+    return idTokenSigKeys
+        .find(issuer, jwks, keyId)
+        .or(
+            () -> {
+              if (!acquireKidMissRefetch(issuer)) {
+                return Optional.empty();
+              }
+              log.info("Unknown kid {} of IDP {}, fetching signed_jwks again", keyId, issuer);
+              final JsonWebKeySet refetched =
+                  signedJwksIdp.refresh(issuer, this::fetchSignedJwksIdp).jwks();
+              return idTokenSigKeys.find(issuer, refetched, keyId);
+            })
+        .orElseThrow(
+            () ->
+                new FdAuthServerException(
+                    "Key " + keyId + " not found in signed_jwks of IDP [" + issuer + "]",
+                    HttpStatus.BAD_REQUEST));
+  }
+
+  private boolean acquireKidMissRefetch(final String issuer) {
+    final AtomicLong lastRefetch =
+        lastKidMissRefetch.computeIfAbsent(issuer, i -> new AtomicLong());
+    final long previous = lastRefetch.get();
+    final long now = System.currentTimeMillis();
+    return now - previous
+            >= fdAuthServerConfiguration
+                .getCache()
+                .getSignedJwksIdpKidMissRefetchInterval()
+                .toMillis()
+        && lastRefetch.compareAndSet(previous, now);
+  }
+
+  private boolean isFresh(final SignedJwks signedJwks) {
+    return System.currentTimeMillis() - signedJwks.fetchedAtMillis()
+        < fdAuthServerConfiguration.getCache().getSignedJwksIdpTimeToLive().toMillis();
   }
-}
 
+  private SignedJwks fetchSignedJwksIdp(final String issuer) {
+    final String signedJwksUri = getIdpMetadata(issuer).signedJwksUri();
+    if (signedJwksUri != null) {
+      // the signed JWKS has no exp, every cached one may be revalidated
+      final HttpValidators validators =
+          validatorsOf(signedJwksIdp, signedJwksIdpValidators, issuer, signedJwks -> true);
+      final HttpResponse<String> resp =
+          idpCircuitBreakers.call(
+              issuer,
+              () -> validators.applyTo(outboundClientRegistry.get(signedJwksUri)).asString());
+      if (HttpValidators.isNotModified(resp) && !validators.isEmpty()) {
+        return new SignedJwks(unchanged(signedJwksIdp, issuer).jwks(), System.currentTimeMillis());
+      }
+      if (resp.isSuccess()) {
+        // TODO check signature
+        try {
+          final JsonWebKeySet jwks =
+              new JsonWebKeySet(new JsonWebToken(resp.getBody()).getPayloadDecoded());
+          idTokenSigKeys.index(issuer, jwks);
+          signedJwksIdpValidators.put(issuer, HttpValidators.of(resp));
+          return new SignedJwks(jwks, System.currentTimeMillis());
+        } catch (JoseException e) {
+          throw new FdAuthServerException(e);
+        }
+      }
+      throw new FdAuthServerException(
+          "Error while fetching the IDP's signed_jwks", HttpStatus.INTERNAL_SERVER_ERROR);
+    }
+    throw new FdAuthServerException(
+        "No signed_jwks_uri found in IDP entity statement", HttpStatus.INTERNAL_SERVER_ERROR);
+  }
+
+  /**
+   * Validators to send when fetching key again: those of the cached value, as long as it may still
+   * be used once confirmed by a 304.
+   */
+  private static <V> HttpValidators validatorsOf(
+      final SingleFlightCache<String, V> cache,
+      final Map<String, HttpValidators> validators,
+      final String key,
+      final Predicate<V> isRevalidatable) {
+    return cache
+        .peek(key)
+        .filter(isRevalidatable)
+        .map(value -> validators.getOrDefault(key, HttpValidators.NONE))
+        .orElse(HttpValidators.NONE);
+  }
+
+  private static <V> V unchanged(final SingleFlightCache<String, V> cache, final String key) {
+    log.debug("{} not modified, keeping verified entry", key);
+    return cache
+        .peek(key)
+        .orElseThrow(
+            () ->
+                new FdAuthServerException(
+                    "Not modified, but no cached entry for " + key,
+                    HttpStatus.INTERNAL_SERVER_ERROR));
+  }
+
+  private record SignedJwks(JsonWebKeySet jwks, long fetchedAtMillis) {}
+}
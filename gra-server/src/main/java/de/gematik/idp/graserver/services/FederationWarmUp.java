@@ -0,0 +1,128 @@
+/*
+ *  Copyright 2023 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.idp.graserver.services;
+
+import de.gematik.idp.graserver.ServerUrlService;
+import de.gematik.idp.graserver.configuration.FdAuthServerConfiguration;
+import de.gematik.idp.graserver.configuration.WarmUpConfig;
+import de.gematik.idp.token.JsonWebToken;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+/**
+ * Fetches and verifies the entity statements and signed JWKS of all Idp-Sektorals of the entity
+ * list in parallel after the start and starts pre-signing client assertions for their token
+ * endpoints, so the first logins do not pay for it. Part of the readiness group: reports
+ * OUT_OF_SERVICE until the warm-up finished or its timeout passed. Failures of single Idp-Sektorals
+ * are only logged, they are fetched again on their first login.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class FederationWarmUp implements HealthIndicator {
+
+  private final EntityListService entityListService;
+  private final EntityStmntIdpsService entityStmntIdpsService;
+  private final ServerUrlService serverUrlService;
+  private final ClientAssertionPool clientAssertionPool;
+  private final FdAuthServerConfiguration fdAuthServerConfiguration;
+  private final Executor applicationTaskExecutor;
+
+  private volatile boolean finished;
+
+  @EventListener(ApplicationReadyEvent.class)
+  public void onApplicationReady() {
+    warmUp();
+  }
+
+  @Override
+  public Health health() {
+    if (finished || !fdAuthServerConfiguration.getWarmUp().isEnabled()) {
+      return Health.up().build();
+    }
+    return Health.outOfService().withDetail("federationWarmUp", "running").build();
+  }
+
+  CompletableFuture<Void> warmUp() {
+    final WarmUpConfig warmUpConfig = fdAuthServerConfiguration.getWarmUp();
+    if (!warmUpConfig.isEnabled()) {
+      return CompletableFuture.completedFuture(null);
+    }
+    final long start = System.currentTimeMillis();
+    return CompletableFuture.supplyAsync(this::readIdpIssuers, applicationTaskExecutor)
+        .thenCompose(
+            issuers ->
+                CompletableFuture.allOf(
+                    issuers.stream()
+                        .map(
+                            issuer ->
+                                CompletableFuture.runAsync(
+                                    () -> warmUpIdp(issuer), applicationTaskExecutor))
+                        .toArray(CompletableFuture[]::new)))
+        .orTimeout(warmUpConfig.getTimeout().toMillis(), TimeUnit.MILLISECONDS)
+        .whenComplete(
+            (result, e) -> {
+              finished = true;
+              if (e != null) {
+                log.warn("Federation warm-up incomplete: {}", e.toString());
+              } else {
+                log.info(
+                    "Federation warm-up finished in {} ms", System.currentTimeMillis() - start);
+              }
+            });
+  }
+
+  @SuppressWarnings("unchecked")
+  private List<String> readIdpIssuers() {
+    // the Idp-Sektorals of the current list, not of the expired one served until it is refreshed
+    entityListService.refreshIfDue();
+    final Object idpEntities =
+        new JsonWebToken(entityListService.getEntityList()).getBodyClaims().get("idp_entity");
+    if (!(idpEntities instanceof List<?> entities)) {
+      return List.of();
+    }
+    return entities.stream()
+        .filter(Map.class::isInstance)
+        .map(entity -> ((Map<String, Object>) entity).get("iss"))
+        .filter(Objects::nonNull)
+        .map(String::valueOf)
+        .distinct()
+        .toList();
+  }
+
+  private void warmUpIdp(final String issuer) {
+    try {
+      final String tokenEndpoint = entityStmntIdpsService.getIdpMetadata(issuer).tokenEndpoint();
+      entityStmntIdpsService.getSignedJwksIdp(issuer);
+      clientAssertionPool.register(serverUrlService.determineServerUrl(), tokenEndpoint);
+      log.debug("Warm-up of Idp-Sektoral [{}] finished", issuer);
+    } catch (final RuntimeException e) {
+      log.warn("Warm-up of Idp-Sektoral [{}] failed: {}", issuer, e.getMessage());
+    }
+  }
+}
@@ -0,0 +1,212 @@
+/*
+ *  Copyright 2023 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.idp.graserver.services;
+
+import de.gematik.idp.graserver.configuration.CircuitBreakerConfig;
+import de.gematik.idp.graserver.configuration.FdAuthServerConfiguration;
+import de.gematik.idp.graserver.exceptions.FdAuthServerException;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import kong.unirest.core.HttpResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+
+/**
+ * One circuit breaker per Idp-Sektoral (keyed by issuer). Requests failing with an exception or a
+ * 5xx status count as failures; after {@link CircuitBreakerConfig#getFailureThreshold()} of them in
+ * a row the circuit opens and requests to this Idp-Sektoral fail immediately with 503 instead of
+ * waiting for timeouts. Once the open duration has passed a single probe request is let through
+ * (half-open), its outcome closes or opens the circuit again.
+ *
+ * <p>Issuers come from requests, so at most maxIssuers circuits are kept. Beyond that the least
+ * recently used circuit that is not open is dropped; if all are open, requests to further issuers
+ * go without circuit breaker.
+ */
+@Service
+@Slf4j
+public class IdpCircuitBreakers {
+
+  private final CircuitBreakerConfig circuitBreakerConfig;
+  private final BoundedLruMap<String, Circuit> circuits;
+
+  public IdpCircuitBreakers(final FdAuthServerConfiguration fdAuthServerConfiguration) {
+    this.circuitBreakerConfig = fdAuthServerConfiguration.getCircuitBreaker();
+    this.circuits =
+        new BoundedLruMap<>(
+            circuitBreakerConfig.getMaxIssuers(),
+            circuit -> !circuit.isOpen(System.currentTimeMillis()),
+            circuit -> {});
+  }
+
+  public <T> HttpResponse<T> call(final String issuer, final Supplier<HttpResponse<T>> request) {
+    final Circuit circuit = acquire(issuer);
+    final HttpResponse<T> response;
+    try {
+      response = request.get();
+    } catch (final RuntimeException e) {
+      circuit.onFailure(issuer);
+      throw e;
+    }
+    record(circuit, issuer, response);
+    return response;
+  }
+
+  public <T> CompletableFuture<HttpResponse<T>> callAsync(
+      final String issuer, final Supplier<CompletableFuture<HttpResponse<T>>> request) {
+    final Circuit circuit;
+    try {
+      circuit = acquire(issuer);
+    } catch (final FdAuthServerException e) {
+      return CompletableFuture.failedFuture(e);
+    }
+    final CompletableFuture<HttpResponse<T>> response;
+    try {
+      response = request.get();
+    } catch (final RuntimeException e) {
+      circuit.onFailure(issuer);
+      return CompletableFuture.failedFuture(e);
+    }
+    return response.whenComplete(
+        (resp, e) -> {
+          if (e != null) {
+            circuit.onFailure(issuer);
+          } else {
+            record(circuit, issuer, resp);
+          }
+        });
+  }
+
+  /** Fails if the circuit of the issuer is open, without using up the half-open probe. */
+  public void rejectIfOpen(final String issuer) {
+    final Optional<Circuit> circuit = circuits.get(issuer);
+    if (circuit.isPresent() && circuit.get().isOpen(System.currentTimeMillis())) {
+      throw circuitOpen(issuer);
+    }
+  }
+
+  State getState(final String issuer) {
+    return circuits.get(issuer).map(circuit -> circuit.state).orElse(State.CLOSED);
+  }
+
+  int circuitCount() {
+    return circuits.size();
+  }
+
+  private Circuit acquire(final String issuer) {
+    final Circuit circuit =
+        circuits
+            .computeIfAbsent(issuer, iss -> new Circuit(circuitBreakerConfig))
+            .orElseGet(() -> new Circuit(circuitBreakerConfig));
+    if (!circuit.tryAcquire(System.currentTimeMillis())) {
+      throw circuitOpen(issuer);
+    }
+    return circuit;
+  }
+
+  private static void record(
+      final Circuit circuit, final String issuer, final HttpResponse<?> response) {
+    if (response.getStatus() >= HttpStatus.INTERNAL_SERVER_ERROR.value()) {
+      circuit.onFailure(issuer);
+    } else {
+      circuit.onSuccess(issuer);
+    }
+  }
+
+  private static FdAuthServerException circuitOpen(final String issuer) {
+    return new FdAuthServerException(
+        "Idp-Sektoral [" + issuer + "] is unavailable, circuit breaker open",
+        HttpStatus.SERVICE_UNAVAILABLE);
+  }
+
+  enum State {
+    CLOSED,
+    OPEN,
+    HALF_OPEN
+  }
+
+  private static final class Circuit {
+
+    private final CircuitBreakerConfig config;
+    private final ReentrantLock lock = new ReentrantLock();
+    private volatile State state = State.CLOSED;
+    private volatile int consecutiveFailures;
+    private long openUntilMillis;
+
+    private Circuit(final CircuitBreakerConfig config) {
+      this.config = config;
+    }
+
+    boolean tryAcquire(final long nowMillis) {
+      if (state == State.CLOSED) {
+        return true;
+      }
+      lock.lock();
+      try {
+        if (state == State.OPEN && nowMillis >= openUntilMillis) {
+          // the caller becomes the probe, everybody else keeps failing fast until it completed
+          state = State.HALF_OPEN;
+          return true;
+        }
+        return state == State.CLOSED;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    boolean isOpen(final long nowMillis) {
+      return state == State.HALF_OPEN || (state == State.OPEN && nowMillis < openUntilMillis);
+    }
+
+    void onSuccess(final String issuer) {
+      if (state == State.CLOSED && consecutiveFailures == 0) {
+        return;
+      }
+      lock.lock();
+      try {
+        if (state != State.CLOSED) {
+          log.info("Circuit breaker of Idp-Sektoral [{}] closed", issuer);
+        }
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    void onFailure(final String issuer) {
+      lock.lock();
+      try {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN
+            || (state == State.CLOSED && consecutiveFailures >= config.getFailureThreshold())) {
+          state = State.OPEN;
+          openUntilMillis = System.currentTimeMillis() + config.getOpenDuration().toMillis();
+          log.warn(
+              "Circuit breaker of Idp-Sektoral [{}] opened for {} after {} failed requests",
+              issuer,
+              config.getOpenDuration(),
+              consecutiveFailures);
+        }
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+}
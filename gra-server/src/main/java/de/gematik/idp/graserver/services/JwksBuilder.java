@@ -19,9 +19,16 @@ package de.gematik.idp.graserver.services;
 import de.gematik.idp.data.FederationPubKey;
 import de.gematik.idp.data.JwtHelper;
 import de.gematik.idp.graserver.data.SignedJwksBody;
+import de.gematik.idp.graserver.exceptions.FdAuthServerException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.cert.CertificateEncodingException;
 import java.time.ZonedDateTime;
+import java.util.stream.Stream;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 
 @RequiredArgsConstructor
@@ -40,4 +47,28 @@ public class JwksBuilder {
         .keys(JwtHelper.getJwks(encPubKey, tlsClientPubKey, tlsClientPubKeyRotation).getKeys())
         .build();
   }
+
+  /**
+   * @return a digest over all keys published in the signed_jwks. It changes whenever one of the key
+   *     beans is modified and is used to detect when a cached signed_jwks is outdated.
+   */
+  public String buildKeyFingerprint() {
+    final MessageDigest digest = DigestUtils.getSha256Digest();
+    Stream.of(encPubKey, tlsClientPubKey, tlsClientPubKeyRotation)
+        .forEach(key -> updateDigest(digest, key));
+    return Hex.encodeHexString(digest.digest());
+  }
+
+  private static void updateDigest(final MessageDigest digest, final FederationPubKey key) {
+    digest.update(String.valueOf(key.getKeyId()).getBytes(StandardCharsets.UTF_8));
+    digest.update(key.getUse().orElse("").getBytes(StandardCharsets.UTF_8));
+    key.getPublicKey().ifPresent(publicKey -> digest.update(publicKey.getEncoded()));
+    try {
+      if (key.getCertificate().isPresent()) {
+        digest.update(key.getCertificate().get().getEncoded());
+      }
+    } catch (final CertificateEncodingException e) {
+      throw new FdAuthServerException("Error while encoding certificate of " + key.getKeyId(), e);
+    }
+  }
 }
@@ -0,0 +1,126 @@
+/*
+ *  Copyright 2023 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.idp.graserver.services;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.gematik.idp.authentication.IdpJwtProcessor;
+import de.gematik.idp.graserver.exceptions.FdAuthServerException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.PrivateKey;
+import java.security.Provider;
+import java.security.Signature;
+import java.security.interfaces.ECPrivateKey;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.jose4j.json.JsonUtil;
+
+/**
+ * Creates compact JWS with one private key. For P-256 keys (ES256) the JWS is assembled directly:
+ * initialized {@link Signature} instances are kept in a pool and the encoded header is kept per
+ * typ, so signing costs no more than the signature itself. Other keys are signed by an {@link
+ * IdpJwtProcessor}.
+ */
+public class JwsSigner {
+
+  private static final String ES256 = "ES256";
+  // JWS expects R || S instead of the DER sequence of the default ECDSA signature
+  private static final String ES256_JCA_ALGORITHM = "SHA256withPLAIN-ECDSA";
+  // not looked up by name, the provider is only registered once GraServer has started
+  private static final Provider BOUNCY_CASTLE = new BouncyCastleProvider();
+  private static final BigInteger P256_ORDER =
+      new BigInteger("FFFFFFFF00000000FFFFFFFFFFFFFFFFBCE6FAADA7179E84F3B9CAC2FC632551", 16);
+  // request threads may be virtual, a pool instead of thread locals keeps instances reusable
+  private static final int MAX_IDLE_SIGNATURES = 2 * Runtime.getRuntime().availableProcessors();
+  private static final Base64.Encoder BASE64_URL = Base64.getUrlEncoder().withoutPadding();
+
+  private final PrivateKey privateKey;
+  private final String keyId;
+  private final IdpJwtProcessor fallbackProcessor;
+  private final BlockingQueue<Signature> idleSignatures =
+      new ArrayBlockingQueue<>(MAX_IDLE_SIGNATURES);
+  private final Map<String, String> encodedHeaders = new ConcurrentHashMap<>();
+
+  public JwsSigner(final PrivateKey privateKey, final String keyId) {
+    this.privateKey = privateKey;
+    this.keyId = keyId;
+    fallbackProcessor = isP256(privateKey) ? null : new IdpJwtProcessor(privateKey, keyId);
+  }
+
+  /** Serializes body with objectMapper and signs it, like JwtHelper.signJson. */
+  public String signJson(final ObjectMapper objectMapper, final Object body, final String typ) {
+    try {
+      return sign(objectMapper.writeValueAsBytes(body), typ);
+    } catch (final JsonProcessingException e) {
+      throw new FdAuthServerException("Serializing JWS payload with typ " + typ + " failed", e);
+    }
+  }
+
+  public String sign(final byte[] payload, final String typ) {
+    if (fallbackProcessor != null) {
+      return fallbackProcessor
+          .buildJws(new String(payload, StandardCharsets.UTF_8), Map.of("typ", typ), false)
+          .getRawString();
+    }
+    final String signingInput =
+        encodedHeaders.computeIfAbsent(typ, this::encodeHeader)
+            + "."
+            + BASE64_URL.encodeToString(payload);
+    return signingInput
+        + "."
+        + BASE64_URL.encodeToString(signature(signingInput.getBytes(StandardCharsets.US_ASCII)));
+  }
+
+  private byte[] signature(final byte[] signingInput) {
+    try {
+      Signature signature = idleSignatures.poll();
+      if (signature == null) {
+        signature = Signature.getInstance(ES256_JCA_ALGORITHM, BOUNCY_CASTLE);
+        signature.initSign(privateKey);
+      }
+      signature.update(signingInput);
+      final byte[] signatureBytes = signature.sign();
+      // only returned after success, a failed instance might be left in an undefined state
+      idleSignatures.offer(signature);
+      return signatureBytes;
+    } catch (final GeneralSecurityException e) {
+      throw new FdAuthServerException("Signing JWS with key " + keyId + " failed", e);
+    }
+  }
+
+  private String encodeHeader(final String typ) {
+    final Map<String, Object> header = new LinkedHashMap<>();
+    header.put("alg", ES256);
+    header.put("typ", typ);
+    if (keyId != null) {
+      header.put("kid", keyId);
+    }
+    return BASE64_URL.encodeToString(JsonUtil.toJson(header).getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static boolean isP256(final PrivateKey privateKey) {
+    return privateKey instanceof final ECPrivateKey ecPrivateKey
+        && P256_ORDER.equals(ecPrivateKey.getParams().getOrder());
+  }
+}
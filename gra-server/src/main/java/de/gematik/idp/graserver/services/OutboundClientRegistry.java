@@ -0,0 +1,212 @@
+/*
+ *  Copyright 2023 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.idp.graserver.services;
+
+import de.gematik.idp.graserver.configuration.FdAuthServerConfiguration;
+import de.gematik.idp.graserver.configuration.OutboundConfig;
+import de.gematik.idp.graserver.exceptions.FdAuthServerException;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import java.net.URI;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.net.ssl.SSLContext;
+import kong.unirest.core.GetRequest;
+import kong.unirest.core.HttpRequestWithBody;
+import kong.unirest.core.Unirest;
+import kong.unirest.core.UnirestInstance;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.core.env.Environment;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+
+/**
+ * HTTP clients of the Fd-Auth-Server keyed by destination (scheme, host and port), i.e. the
+ * Fedmaster and the PAR, token, JWKS and entity statement endpoints of each Idp-Sektoral. Every
+ * destination gets its own client with its own connection pool, so a slow Idp-Sektoral cannot
+ * occupy the connections to the others. Requests are timed per destination (gras.outbound.requests)
+ * and the requests in flight are exposed as gras.outbound.in.flight.
+ *
+ * <p>Destinations partly come from requests (idp_iss), so at most maxDestinations own clients are
+ * kept. Beyond that the least recently used idle client is closed and its meters are removed; if
+ * all are busy, the destination is served by a shared client tagged {@value #OTHER_DESTINATIONS}. A
+ * client is busy from handing out a request until the request completed, so a request built but not
+ * yet executed is never sent through a closed client.
+ */
+@Service
+@Slf4j
+public class OutboundClientRegistry {
+
+  private static final String DESTINATION_TAG = "destination";
+  private static final String OTHER_DESTINATIONS = "other";
+  private static final String IN_FLIGHT_METER = "gras.outbound.in.flight";
+  private static final String REQUESTS_METER = "gras.outbound.requests";
+
+  private final FdAuthServerConfiguration fdAuthServerConfiguration;
+  private final SSLContext sslContext;
+  private final MeterRegistry meterRegistry;
+  private final Environment environment;
+
+  private final BoundedLruMap<String, Client> clients;
+  private final Client otherDestinationsClient;
+
+  public OutboundClientRegistry(
+      final FdAuthServerConfiguration fdAuthServerConfiguration,
+      final SSLContext sslContext,
+      final MeterRegistry meterRegistry,
+      final Environment environment) {
+    this.fdAuthServerConfiguration = fdAuthServerConfiguration;
+    this.sslContext = sslContext;
+    this.meterRegistry = meterRegistry;
+    this.environment = environment;
+    this.clients =
+        new BoundedLruMap<>(
+            fdAuthServerConfiguration.getOutbound().getMaxDestinations(),
+            Client::retireIfIdle,
+            this::closeClient);
+    this.otherDestinationsClient = createClient(OTHER_DESTINATIONS);
+  }
+
+  /** The request must be executed once, it keeps the client of its destination open until then. */
+  public GetRequest get(final String url) {
+    return lease(url).get(url);
+  }
+
+  /** The request must be executed once, it keeps the client of its destination open until then. */
+  public HttpRequestWithBody post(final String url) {
+    return lease(url).post(url);
+  }
+
+  /** The client of the destination of url, without a lease it may be closed at any time. */
+  UnirestInstance client(final String url) {
+    return clientOf(destinationOf(url)).instance();
+  }
+
+  private UnirestInstance lease(final String url) {
+    final String destination = destinationOf(url);
+    while (true) {
+      final Client client = clientOf(destination);
+      if (client.lease()) {
+        return client.instance();
+      }
+      // retired meanwhile, the next lookup creates a new client
+    }
+  }
+
+  private Client clientOf(final String destination) {
+    return clients.computeIfAbsent(destination, this::createClient).orElse(otherDestinationsClient);
+  }
+
+  @PreDestroy
+  public void close() {
+    clients.clear();
+    closeClient(otherDestinationsClient);
+  }
+
+  static String destinationOf(final String url) {
+    final URI uri;
+    try {
+      uri = URI.create(url);
+    } catch (final IllegalArgumentException e) {
+      throw new FdAuthServerException("Invalid url of outbound request: " + url, e);
+    }
+    if (uri.getScheme() == null || uri.getHost() == null) {
+      throw new FdAuthServerException(
+          "Invalid url of outbound request: " + url, HttpStatus.INTERNAL_SERVER_ERROR);
+    }
+    final int port =
+        uri.getPort() != -1 ? uri.getPort() : "https".equalsIgnoreCase(uri.getScheme()) ? 443 : 80;
+    return uri.getScheme().toLowerCase() + "://" + uri.getHost().toLowerCase() + ":" + port;
+  }
+
+  private Client createClient(final String destination) {
+    final OutboundConfig outboundConfig = fdAuthServerConfiguration.getOutbound();
+    final AtomicInteger inFlight = new AtomicInteger();
+    final AtomicInteger leases = new AtomicInteger();
+    Gauge.builder(IN_FLIGHT_METER, inFlight, AtomicInteger::get)
+        .description("Requests to the destination waiting for a response")
+        .tag(DESTINATION_TAG, destination)
+        .register(meterRegistry);
+
+    final UnirestInstance client = Unirest.spawnInstance();
+    client
+        .config()
+        .sslContext(sslContext)
+        .version(outboundConfig.getHttpVersion())
+        .connectTimeout((int) outboundConfig.getConnectTimeout().toMillis())
+        .requestTimeout((int) outboundConfig.getRequestTimeout().toMillis())
+        .instrumentWith(
+            request -> {
+              inFlight.incrementAndGet();
+              final Timer.Sample sample = Timer.start(meterRegistry);
+              return (response, exception) -> {
+                inFlight.decrementAndGet();
+                leases.getAndUpdate(count -> count > 0 ? count - 1 : count);
+                sample.stop(
+                    Timer.builder(REQUESTS_METER)
+                        .tag(DESTINATION_TAG, destination)
+                        .tag("method", request.getHttpMethod().name())
+                        .tag(
+                            "status",
+                            response != null ? String.valueOf(response.getStatus()) : "IO_ERROR")
+                        .register(meterRegistry));
+              };
+            });
+    if (Threading.VIRTUAL.isActive(environment)) {
+      // responses to non-blocking requests are handled on virtual threads, like everything else
+      client.config().executor(Executors.newVirtualThreadPerTaskExecutor());
+    }
+    log.debug("Created HTTP client for destination {}", destination);
+    return new Client(destination, client, leases);
+  }
+
+  private void closeClient(final Client client) {
+    client.instance().close();
+    for (final String meter : new String[] {IN_FLIGHT_METER, REQUESTS_METER}) {
+      meterRegistry
+          .find(meter)
+          .tag(DESTINATION_TAG, client.destination())
+          .meters()
+          .forEach(meterRegistry::remove);
+    }
+    log.debug("Closed HTTP client for destination {}", client.destination());
+  }
+
+  /**
+   * @param leases requests handed out and not completed yet, -1 once the client is retired
+   */
+  private record Client(String destination, UnirestInstance instance, AtomicInteger leases) {
+
+    boolean lease() {
+      int count;
+      do {
+        count = leases.get();
+        if (count < 0) {
+          return false;
+        }
+      } while (!leases.compareAndSet(count, count + 1));
+      return true;
+    }
+
+    boolean retireIfIdle() {
+      return leases.compareAndSet(0, -1);
+    }
+  }
+}
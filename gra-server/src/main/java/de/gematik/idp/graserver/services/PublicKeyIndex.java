@@ -0,0 +1,74 @@
+/*
+ *  Copyright 2023 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.idp.graserver.services;
+
+import java.security.PublicKey;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import org.jose4j.jwk.JsonWebKey;
+import org.jose4j.jwk.JsonWebKeySet;
+import org.jose4j.jwk.PublicJsonWebKey;
+
+/**
+ * Ready-to-use public keys per issuer and kid, extracted once from a key source (a JWKS or an
+ * entity statement). The keys of an issuer are bound to the source object they were extracted
+ * from: when the cached source is replaced, its keys are extracted again on the next lookup.
+ */
+public class PublicKeyIndex<S> {
+
+  private final Map<String, IndexedKeys<S>> keysByIssuer = new ConcurrentHashMap<>();
+  private final Function<S, JsonWebKeySet> extractJwks;
+
+  public PublicKeyIndex(final Function<S, JsonWebKeySet> extractJwks) {
+    this.extractJwks = extractJwks;
+  }
+
+  /** Indexes the keys of a freshly fetched source of issuer. */
+  public void index(final String issuer, final S source) {
+    keysByIssuer.put(issuer, new IndexedKeys<>(source, keysOf(extractJwks.apply(source))));
+  }
+
+  /** The key with keyId of issuer, as contained in source. */
+  public Optional<PublicKey> find(final String issuer, final S source, final String keyId) {
+    IndexedKeys<S> indexedKeys = keysByIssuer.get(issuer);
+    if (indexedKeys == null || indexedKeys.source() != source) {
+      index(issuer, source);
+      indexedKeys = keysByIssuer.get(issuer);
+    }
+    return Optional.ofNullable(keyId).map(indexedKeys.keys()::get);
+  }
+
+  public void clear() {
+    keysByIssuer.clear();
+  }
+
+  private static Map<String, PublicKey> keysOf(final JsonWebKeySet jwks) {
+    return jwks.getJsonWebKeys().stream()
+        .filter(PublicJsonWebKey.class::isInstance)
+        .filter(jwk -> jwk.getKeyId() != null)
+        .collect(
+            Collectors.toUnmodifiableMap(
+                JsonWebKey::getKeyId,
+                jwk -> ((PublicJsonWebKey) jwk).getPublicKey(),
+                (first, second) -> first));
+  }
+
+  private record IndexedKeys<S>(S source, Map<String, PublicKey> keys) {}
+}
@@ -0,0 +1,158 @@
+/*
+ *  Copyright 2023 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.idp.graserver.services;
+
+import static de.gematik.idp.graserver.Constants.FD_AUTH_SERVER_NONCE_LENGTH;
+import static de.gematik.idp.graserver.Constants.FD_AUTH_SERVER_STATE_LENGTH;
+
+import de.gematik.idp.field.ClientUtilities;
+import de.gematik.idp.graserver.configuration.FdAuthServerConfiguration;
+import de.gematik.idp.graserver.exceptions.FdAuthServerException;
+import java.nio.charset.StandardCharsets;
+import java.security.DrbgParameters;
+import java.security.DrbgParameters.Capability;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+/**
+ * Random values of the Fd-Auth-Server. They are drawn from several DRBG instances of the SUN
+ * provider, selected by the id of the calling thread, instead of one shared SecureRandom, so
+ * concurrent requests rarely wait for each other. The state, nonce and code verifier of message
+ * nr.1 are additionally generated ahead in the background; every set is handed out only once.
+ */
+@Service
+@Slf4j
+public class RandomnessService {
+
+  private static final int CODE_VERIFIER_LENGTH = 32;
+  private static final HexFormat HEX = HexFormat.of();
+  private static final Base64.Encoder BASE64_URL = Base64.getUrlEncoder().withoutPadding();
+
+  // a thread local DRBG would be instantiated and seeded again for every virtual thread
+  private final SecureRandom[] drbgs;
+  private final int sessionSecretsQueueSize;
+  private final BlockingQueue<SessionSecrets> sessionSecrets;
+  private final Executor applicationTaskExecutor;
+  private final AtomicBoolean refilling = new AtomicBoolean();
+
+  public RandomnessService(
+      final FdAuthServerConfiguration fdAuthServerConfiguration,
+      final Executor applicationTaskExecutor) {
+    this.applicationTaskExecutor = applicationTaskExecutor;
+    drbgs = new SecureRandom[Integer.highestOneBit(4 * Runtime.getRuntime().availableProcessors())];
+    for (int i = 0; i < drbgs.length; i++) {
+      drbgs[i] = newDrbg(i);
+    }
+    sessionSecretsQueueSize =
+        fdAuthServerConfiguration.getRandomness().getSessionSecretsQueueSize();
+    sessionSecrets = new ArrayBlockingQueue<>(Math.max(1, sessionSecretsQueueSize));
+  }
+
+  public byte[] randomBytes(final int length) {
+    final byte[] bytes = new byte[length];
+    drbgs[(int) Thread.currentThread().threadId() & (drbgs.length - 1)].nextBytes(bytes);
+    return bytes;
+  }
+
+  /** Like Nonce.getNonceAsHex: length hex digits. */
+  public String nonceAsHex(final int length) {
+    return HEX.formatHex(randomBytes((length + 1) / 2)).substring(0, length);
+  }
+
+  /** Like Nonce.getNonceAsBase64UrlEncodedString: length random bytes, base64url encoded. */
+  public String nonceAsBase64Url(final int length) {
+    return BASE64_URL.encodeToString(randomBytes(length));
+  }
+
+  /** Returns an unused set of secrets for a new App2App flow (message nr.1). */
+  public SessionSecrets takeSessionSecrets() {
+    if (sessionSecretsQueueSize == 0) {
+      return newSessionSecrets();
+    }
+    final SessionSecrets secrets = sessionSecrets.poll();
+    if (sessionSecrets.size() < sessionSecretsQueueSize / 2
+        && refilling.compareAndSet(false, true)) {
+      applicationTaskExecutor.execute(this::fillSessionSecrets);
+    }
+    return secrets != null ? secrets : newSessionSecrets();
+  }
+
+  /** Tops up the queue of session secrets, also right after the start. */
+  @Scheduled(fixedDelay = 1, timeUnit = TimeUnit.SECONDS)
+  public void refillSessionSecrets() {
+    if (sessionSecretsQueueSize > 0 && refilling.compareAndSet(false, true)) {
+      fillSessionSecrets();
+    }
+  }
+
+  private void fillSessionSecrets() {
+    try {
+      while (sessionSecrets.remainingCapacity() > 0 && sessionSecrets.offer(newSessionSecrets())) {
+        // until full
+      }
+    } finally {
+      refilling.set(false);
+    }
+  }
+
+  int availableSessionSecrets() {
+    return sessionSecrets.size();
+  }
+
+  private SessionSecrets newSessionSecrets() {
+    final String codeVerifier =
+        ClientUtilities.generateCodeVerifier(randomBytes(CODE_VERIFIER_LENGTH));
+    return new SessionSecrets(
+        nonceAsHex(FD_AUTH_SERVER_STATE_LENGTH),
+        nonceAsHex(FD_AUTH_SERVER_NONCE_LENGTH),
+        codeVerifier,
+        ClientUtilities.generateCodeChallenge(codeVerifier));
+  }
+
+  private static SecureRandom newDrbg(final int index) {
+    try {
+      // by name from SUN, with BouncyCastle as first provider "DRBG" is not found otherwise
+      return SecureRandom.getInstance(
+          "DRBG",
+          DrbgParameters.instantiation(
+              256, Capability.RESEED_ONLY, ("gras-" + index).getBytes(StandardCharsets.US_ASCII)),
+          "SUN");
+    } catch (final GeneralSecurityException e) {
+      throw new FdAuthServerException("Instantiating DRBG failed", e);
+    }
+  }
+
+  /**
+   * Secrets of one App2App flow, sent in the PAR (message nr.2) and the token request (message
+   * nr.10).
+   */
+  public record SessionSecrets(
+      String fdAuthServerState,
+      String fdAuthServerNonce,
+      String fdAuthServerCodeVerifier,
+      String fdAuthServerCodeChallenge) {}
+}
@@ -0,0 +1,299 @@
+/*
+ *  Copyright 2023 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.idp.graserver.services;
+
+import de.gematik.idp.graserver.configuration.FdAuthServerConfiguration;
+import de.gematik.idp.graserver.configuration.RetryConfig;
+import de.gematik.idp.graserver.exceptions.FdAuthServerException;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import kong.unirest.core.GetRequest;
+import kong.unirest.core.HttpResponse;
+import kong.unirest.core.UnirestException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+
+/**
+ * Sends idempotent GET requests to the federation with retries on exceptions and 5xx responses.
+ * Retries wait for an exponential backoff with jitter and are paid from a retry budget every
+ * request contributes to, so retries stay a fraction of the regular load during outages. With
+ * hedging enabled a second request is sent if the first one is slower than the p95 latency of the
+ * destination, the first usable response wins. Hedged requests are paid from the same budget.
+ * Latencies are kept for the outbound.maxDestinations most recently used destinations.
+ */
+@Service
+@Slf4j
+public class RetryingGetExecutor {
+
+  private static final int LATENCY_SAMPLES = 128;
+  private static final int HEDGING_MIN_SAMPLES = 20;
+
+  private final RetryConfig retryConfig;
+  private final RetryBudget retryBudget;
+  private final BoundedLruMap<String, LatencyWindow> latencies;
+
+  public RetryingGetExecutor(final FdAuthServerConfiguration fdAuthServerConfiguration) {
+    retryConfig = fdAuthServerConfiguration.getRetry();
+    latencies = new BoundedLruMap<>(fdAuthServerConfiguration.getOutbound().getMaxDestinations());
+    retryBudget = new RetryBudget(retryConfig.getBudgetRatio(), retryConfig.getBudgetMaxTokens());
+  }
+
+  /**
+   * Sends the request built by the supplier, which is called again for every retry and hedged
+   * request. Returns the first response that is not a 5xx, or the last outcome once attempts or
+   * budget are exhausted.
+   */
+  public HttpResponse<String> get(final Supplier<GetRequest> request) {
+    retryBudget.deposit();
+    for (int attempt = 1; ; attempt++) {
+      final boolean lastAttempt = attempt >= retryConfig.getMaxAttempts();
+      try {
+        final HttpResponse<String> response = send(request);
+        if (!isRetryable(response) || lastAttempt || !retryBudget.tryWithdraw()) {
+          return response;
+        }
+        log.info("Retry GET after status {}, attempt {}", response.getStatus(), attempt);
+      } catch (final UnirestException e) {
+        if (lastAttempt || !retryBudget.tryWithdraw()) {
+          throw e;
+        }
+        log.info("Retry GET after {}, attempt {}", e.getMessage(), attempt);
+      }
+      backoff(attempt);
+    }
+  }
+
+  int latencyWindowCount() {
+    return latencies.size();
+  }
+
+  double remainingBudget() {
+    return retryBudget.tokens();
+  }
+
+  private HttpResponse<String> send(final Supplier<GetRequest> request) {
+    final GetRequest getRequest = request.get();
+    final LatencyWindow latency =
+        latencies
+            .computeIfAbsent(
+                OutboundClientRegistry.destinationOf(getRequest.getUrl()), d -> new LatencyWindow())
+            .orElseThrow();
+    final long hedgingDelayMillis =
+        retryConfig.isHedging()
+            ? latency.p95Millis().map(p95 -> Math.max(p95, minHedgingDelayMillis())).orElse(-1L)
+            : -1L;
+    if (hedgingDelayMillis < 0) {
+      final long start = System.nanoTime();
+      final HttpResponse<String> response = getRequest.asString();
+      latency.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+      return response;
+    }
+    final CompletableFuture<HttpResponse<String>> primary = sendAsync(getRequest, latency);
+    try {
+      return primary.get(hedgingDelayMillis, TimeUnit.MILLISECONDS);
+    } catch (final TimeoutException e) {
+      if (!retryBudget.tryWithdraw()) {
+        return await(primary);
+      }
+      log.debug("Hedge GET {} after {} ms", getRequest.getUrl(), hedgingDelayMillis);
+      return await(firstUsable(primary, sendAsync(request.get(), latency)));
+    } catch (final ExecutionException e) {
+      throw unwrap(e);
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new FdAuthServerException("Interrupted while waiting for " + getRequest.getUrl(), e);
+    }
+  }
+
+  private long minHedgingDelayMillis() {
+    return retryConfig.getHedgingMinDelay().toMillis();
+  }
+
+  private static CompletableFuture<HttpResponse<String>> sendAsync(
+      final GetRequest getRequest, final LatencyWindow latency) {
+    final long start = System.nanoTime();
+    return getRequest
+        .asStringAsync()
+        .whenComplete(
+            (response, e) -> {
+              if (e == null) {
+                latency.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+              }
+            });
+  }
+
+  /** Completes with the first response that is not retryable, or the last outcome of both. */
+  private static CompletableFuture<HttpResponse<String>> firstUsable(
+      final CompletableFuture<HttpResponse<String>> primary,
+      final CompletableFuture<HttpResponse<String>> hedge) {
+    final CompletableFuture<HttpResponse<String>> result = new CompletableFuture<>();
+    final AtomicInteger pending = new AtomicInteger(2);
+    for (final CompletableFuture<HttpResponse<String>> candidate : Arrays.asList(primary, hedge)) {
+      candidate.whenComplete(
+          (response, e) -> {
+            if (e == null && !isRetryable(response)) {
+              result.complete(response);
+            } else if (pending.decrementAndGet() == 0) {
+              if (e != null) {
+                result.completeExceptionally(e);
+              } else {
+                result.complete(response);
+              }
+            }
+          });
+    }
+    return result.whenComplete(
+        (response, e) -> {
+          primary.cancel(false);
+          hedge.cancel(false);
+        });
+  }
+
+  private static HttpResponse<String> await(
+      final CompletableFuture<HttpResponse<String>> response) {
+    try {
+      return response.get();
+    } catch (final ExecutionException e) {
+      throw unwrap(e);
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new FdAuthServerException("Interrupted while waiting for response", e);
+    }
+  }
+
+  private static RuntimeException unwrap(final Exception e) {
+    Throwable cause = e;
+    while ((cause instanceof ExecutionException || cause instanceof CompletionException)
+        && cause.getCause() != null) {
+      cause = cause.getCause();
+    }
+    return cause instanceof RuntimeException runtimeException
+        ? runtimeException
+        : new UnirestException(cause);
+  }
+
+  private static boolean isRetryable(final HttpResponse<String> response) {
+    return response.getStatus() >= HttpStatus.INTERNAL_SERVER_ERROR.value();
+  }
+
+  private void backoff(final int attempt) {
+    final long capMillis =
+        Math.min(
+            retryConfig.getMaxBackoff().toMillis(),
+            retryConfig.getInitialBackoff().toMillis() << Math.min(attempt - 1, 30));
+    // equal jitter: at least half the backoff, so retries of many callers do not line up
+    final long backoffMillis =
+        capMillis / 2 + ThreadLocalRandom.current().nextLong(capMillis / 2 + 1);
+    try {
+      Thread.sleep(backoffMillis);
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new FdAuthServerException("Interrupted during retry backoff", e);
+    }
+  }
+
+  /** Token bucket: every request deposits a fraction of a token, every retry takes a full one. */
+  private static final class RetryBudget {
+
+    private final double ratio;
+    private final double maxTokens;
+    private final ReentrantLock lock = new ReentrantLock();
+    private double tokens;
+
+    private RetryBudget(final double ratio, final int maxTokens) {
+      this.ratio = ratio;
+      this.maxTokens = maxTokens;
+      tokens = maxTokens;
+    }
+
+    void deposit() {
+      lock.lock();
+      try {
+        tokens = Math.min(maxTokens, tokens + ratio);
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    boolean tryWithdraw() {
+      lock.lock();
+      try {
+        if (tokens < 1) {
+          return false;
+        }
+        tokens--;
+        return true;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    double tokens() {
+      lock.lock();
+      try {
+        return tokens;
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+
+  /** Latencies of the last {@value #LATENCY_SAMPLES} responses of a destination. */
+  private static final class LatencyWindow {
+
+    private final long[] samples = new long[LATENCY_SAMPLES];
+    private final ReentrantLock lock = new ReentrantLock();
+    private int count;
+    private int next;
+
+    void record(final long millis) {
+      lock.lock();
+      try {
+        samples[next] = millis;
+        next = (next + 1) % samples.length;
+        count = Math.min(count + 1, samples.length);
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    Optional<Long> p95Millis() {
+      final long[] sorted;
+      lock.lock();
+      try {
+        if (count < HEDGING_MIN_SAMPLES) {
+          return Optional.empty();
+        }
+        sorted = Arrays.copyOf(samples, count);
+      } finally {
+        lock.unlock();
+      }
+      Arrays.sort(sorted);
+      return Optional.of(sorted[(int) Math.ceil(sorted.length * 0.95) - 1]);
+    }
+  }
+}
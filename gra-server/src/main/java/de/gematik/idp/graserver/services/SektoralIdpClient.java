@@ -0,0 +1,140 @@
+/*
+ *  Copyright 2023 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.idp.graserver.services;
+
+import static de.gematik.idp.IdpConstants.FED_AUTH_ENDPOINT;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.gematik.idp.data.ParResponse;
+import de.gematik.idp.data.TokenResponse;
+import de.gematik.idp.graserver.exceptions.FdAuthServerException;
+import java.util.concurrent.CompletableFuture;
+import kong.unirest.core.HttpResponse;
+import kong.unirest.core.MultipartBody;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+
+/**
+ * Requests of the Fd-Auth-Server to the endpoints of an Idp-Sektoral in the App2App flow, the PAR
+ * (message nr.2) and the token request (message nr.10). Each request is offered blocking and as
+ * non-blocking variant that does not occupy a thread while waiting for the Idp-Sektoral.
+ */
+@Service
+@RequiredArgsConstructor
+public class SektoralIdpClient {
+
+  private final ObjectMapper objectMapper;
+  private final ClientAssertionPool clientAssertionPool;
+  private final OutboundClientRegistry outboundClientRegistry;
+  private final IdpCircuitBreakers idpCircuitBreakers;
+
+  public ParResponse sendPar(
+      final String idpIss, final String sekIdpParEndpoint, final ParRequest parRequest) {
+    return readParResponse(
+        sekIdpParEndpoint,
+        idpCircuitBreakers.call(idpIss, () -> buildPar(sekIdpParEndpoint, parRequest).asString()));
+  }
+
+  public CompletableFuture<ParResponse> sendParAsync(
+      final String idpIss, final String sekIdpParEndpoint, final ParRequest parRequest) {
+    return idpCircuitBreakers
+        .callAsync(idpIss, () -> buildPar(sekIdpParEndpoint, parRequest).asStringAsync())
+        .thenApply(resp -> readParResponse(sekIdpParEndpoint, resp));
+  }
+
+  public TokenResponse sendTokenRequest(
+      final String idpIss, final String sekIdpTokenEndpoint, final TokenRequest tokenRequest) {
+    return readTokenResponse(
+        sekIdpTokenEndpoint,
+        idpCircuitBreakers.call(
+            idpIss, () -> buildTokenRequest(sekIdpTokenEndpoint, tokenRequest).asString()));
+  }
+
+  public CompletableFuture<TokenResponse> sendTokenRequestAsync(
+      final String idpIss, final String sekIdpTokenEndpoint, final TokenRequest tokenRequest) {
+    return idpCircuitBreakers
+        .callAsync(
+            idpIss, () -> buildTokenRequest(sekIdpTokenEndpoint, tokenRequest).asStringAsync())
+        .thenApply(resp -> readTokenResponse(sekIdpTokenEndpoint, resp));
+  }
+
+  private MultipartBody buildPar(final String sekIdpParEndpoint, final ParRequest parRequest) {
+    return outboundClientRegistry
+        .post(sekIdpParEndpoint)
+        .field("client_id", parRequest.fdAuthServerUrl())
+        .field("state", parRequest.fdAuthServerState())
+        .field("redirect_uri", parRequest.fdAuthServerUrl() + FED_AUTH_ENDPOINT)
+        .field("code_challenge", parRequest.fdAuthServerCodeChallenge())
+        .field("code_challenge_method", "S256")
+        .field("response_type", "code")
+        .field("nonce", parRequest.fdAuthServerNonce())
+        .field("scope", "urn:telematik:display_name urn:telematik:versicherter openid")
+        .field("acr_values", "gematik-ehealth-loa-high")
+        .contentType(MediaType.APPLICATION_FORM_URLENCODED_VALUE)
+        .header(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON_VALUE);
+  }
+
+  private MultipartBody buildTokenRequest(
+      final String sekIdpTokenEndpoint, final TokenRequest tokenRequest) {
+    final String fdAuthServerUrl = tokenRequest.fdAuthServerUrl();
+    return outboundClientRegistry
+        .post(sekIdpTokenEndpoint)
+        .field("grant_type", "authorization_code")
+        .field("code", tokenRequest.authorizationCode())
+        .field("code_verifier", tokenRequest.fdAuthServerCodeVerifier())
+        .field("client_id", fdAuthServerUrl)
+        .field("redirect_uri", fdAuthServerUrl + FED_AUTH_ENDPOINT)
+        .field("client_assertion_type", "urn:ietf:params:oauth:client-assertion-type:jwt-bearer")
+        .field("client_assertion", clientAssertionPool.take(fdAuthServerUrl, sekIdpTokenEndpoint))
+        .contentType(MediaType.APPLICATION_FORM_URLENCODED_VALUE)
+        .header(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON_VALUE);
+  }
+
+  private ParResponse readParResponse(
+      final String sekIdpParEndpoint, final HttpResponse<String> resp) {
+    try {
+      return objectMapper.readValue(resp.getBody(), ParResponse.class);
+    } catch (final JsonProcessingException e) {
+      throw new FdAuthServerException(
+          "Error while parsing PAR response from " + sekIdpParEndpoint, e);
+    }
+  }
+
+  private TokenResponse readTokenResponse(
+      final String sekIdpTokenEndpoint, final HttpResponse<String> resp) {
+    try {
+      return objectMapper.readValue(resp.getBody(), TokenResponse.class);
+    } catch (final JsonProcessingException e) {
+      throw new FdAuthServerException(
+          "Error while parsing token response from " + sekIdpTokenEndpoint, e);
+    }
+  }
+
+  /** Parameters of the PAR (message nr.2) that are specific to one App2App flow. */
+  public record ParRequest(
+      String fdAuthServerUrl,
+      String fdAuthServerState,
+      String fdAuthServerCodeChallenge,
+      String fdAuthServerNonce) {}
+
+  /** Parameters of the token request (message nr.10) that are specific to one App2App flow. */
+  public record TokenRequest(
+      String fdAuthServerUrl, String authorizationCode, String fdAuthServerCodeVerifier) {}
+}
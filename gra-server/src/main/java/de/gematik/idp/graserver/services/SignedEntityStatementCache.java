@@ -0,0 +1,115 @@
+/*
+ *  Copyright 2023 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.idp.graserver.services;
+
+import static de.gematik.idp.IdpConstants.ENTITY_STATEMENT_TYP;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.gematik.idp.graserver.ServerUrlService;
+import de.gematik.idp.graserver.configuration.FdAuthServerConfiguration;
+import de.gematik.idp.graserver.data.CacheableJws;
+import de.gematik.idp.graserver.data.EntityStatement;
+import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+/**
+ * Holds the signed entity statement of the Fd-Auth-Server as pre-encoded UTF-8 bytes. The statement
+ * is re-signed in the background once half of its lifetime has passed, so requests only copy memory
+ * instead of building and signing a new statement.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class SignedEntityStatementCache {
+
+  private final JwsSigner jwsSignerEsSigPrivKey;
+  private final ObjectMapper objectMapper;
+  private final EntityStatementBuilder entityStatementBuilder;
+  private final ServerUrlService serverUrlService;
+  private final FdAuthServerConfiguration fdAuthServerConfiguration;
+
+  // not a monitor: virtual threads waiting for the signature must not pin their carrier
+  private final ReentrantLock resignLock = new ReentrantLock();
+  private volatile SignedEntityStatement current;
+
+  public byte[] getEntityStatement() {
+    return getCacheableEntityStatement().content();
+  }
+
+  public CacheableJws getCacheableEntityStatement() {
+    SignedEntityStatement entityStatement = current;
+    if (entityStatement == null || entityStatement.isExpired(now())) {
+      resignLock.lock();
+      try {
+        entityStatement = current;
+        if (entityStatement == null || entityStatement.isExpired(now())) {
+          entityStatement = resign();
+        }
+      } finally {
+        resignLock.unlock();
+      }
+    }
+    return entityStatement.jws();
+  }
+
+  @Scheduled(fixedDelay = 1, timeUnit = TimeUnit.MINUTES)
+  public void resignIfDue() {
+    resignLock.lock();
+    try {
+      if (current == null || current.isDueForResigning(now())) {
+        resign();
+      }
+    } finally {
+      resignLock.unlock();
+    }
+  }
+
+  private SignedEntityStatement resign() {
+    final EntityStatement body =
+        entityStatementBuilder.buildEntityStatement(
+            serverUrlService.determineServerUrl(), fdAuthServerConfiguration.getFedmasterUrl());
+    final String jws = jwsSignerEsSigPrivKey.signJson(objectMapper, body, ENTITY_STATEMENT_TYP);
+    final SignedEntityStatement resigned =
+        new SignedEntityStatement(
+            CacheableJws.of(jws.getBytes(StandardCharsets.UTF_8), body.getIat(), body.getExp()),
+            body.getIat() + (body.getExp() - body.getIat()) / 2);
+    current = resigned;
+    log.debug("EntityStatement re-signed, valid until {}", body.getExp());
+    return resigned;
+  }
+
+  private static long now() {
+    return ZonedDateTime.now().toEpochSecond();
+  }
+
+  private record SignedEntityStatement(CacheableJws jws, long resignAt) {
+
+    boolean isExpired(final long now) {
+      return now >= jws.expiresAt();
+    }
+
+    boolean isDueForResigning(final long now) {
+      return now >= resignAt;
+    }
+  }
+}
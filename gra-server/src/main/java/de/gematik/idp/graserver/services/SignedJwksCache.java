@@ -0,0 +1,116 @@
+/*
+ *  Copyright 2023 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.idp.graserver.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.gematik.idp.graserver.ServerUrlService;
+import de.gematik.idp.graserver.configuration.FdAuthServerConfiguration;
+import de.gematik.idp.graserver.data.CacheableJws;
+import de.gematik.idp.graserver.data.SignedJwksBody;
+import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+/**
+ * Holds the signed_jwks of the Fd-Auth-Server (content of /jws.json) together with a strong ETag.
+ * The JWKS is only built and signed again when one of the published keys changes or the configured
+ * re-sign interval has passed.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class SignedJwksCache {
+
+  private final JwsSigner jwsSignerEsSigPrivKey;
+  private final ObjectMapper objectMapper;
+  private final JwksBuilder jwksBuilder;
+  private final ServerUrlService serverUrlService;
+  private final FdAuthServerConfiguration fdAuthServerConfiguration;
+
+  private final ReentrantLock rebuildLock = new ReentrantLock();
+  private volatile SignedJwks current;
+
+  public SignedJwks getSignedJwks() {
+    SignedJwks signedJwks = current;
+    if (signedJwks == null) {
+      rebuildLock.lock();
+      try {
+        signedJwks = current;
+        if (signedJwks == null) {
+          signedJwks = rebuild(jwksBuilder.buildKeyFingerprint());
+        }
+      } finally {
+        rebuildLock.unlock();
+      }
+    }
+    return signedJwks;
+  }
+
+  @Scheduled(fixedDelay = 1, timeUnit = TimeUnit.MINUTES)
+  public void rebuildIfOutdated() {
+    rebuildLock.lock();
+    try {
+      final String keyFingerprint = jwksBuilder.buildKeyFingerprint();
+      if (current == null
+          || !current.keyFingerprint().equals(keyFingerprint)
+          || ZonedDateTime.now().toEpochSecond() >= current.resignAt()) {
+        rebuild(keyFingerprint);
+      }
+    } finally {
+      rebuildLock.unlock();
+    }
+  }
+
+  private SignedJwks rebuild(final String keyFingerprint) {
+    final SignedJwksBody body = jwksBuilder.build(serverUrlService.determineServerUrl());
+    final String jws = jwsSignerEsSigPrivKey.signJson(objectMapper, body, "jwk-set+json");
+    final byte[] content = jws.getBytes(StandardCharsets.UTF_8);
+    final SignedJwks signedJwks =
+        new SignedJwks(
+            content,
+            CacheableJws.etagOf(content),
+            keyFingerprint,
+            body.getIat(),
+            ZonedDateTime.now()
+                .plus(fdAuthServerConfiguration.getCache().getSignedJwksResignInterval())
+                .toEpochSecond());
+    current = signedJwks;
+    log.debug("signed_jwks rebuilt, ETag: {}", signedJwks.etag());
+    return signedJwks;
+  }
+
+  /**
+   * @param jws signed_jwks as UTF-8 bytes
+   * @param etag strong entity tag of jws (quoted)
+   * @param keyFingerprint fingerprint of the keys contained in jws
+   * @param iat epoch second jws was signed
+   * @param resignAt epoch second after which jws is signed again
+   */
+  public record SignedJwks(
+      byte[] jws, String etag, String keyFingerprint, long iat, long resignAt) {
+
+    /** Cacheable until it is signed again. */
+    public CacheableJws toCacheableJws() {
+      return new CacheableJws(jws, etag, iat, resignAt);
+    }
+  }
+}
@@ -0,0 +1,127 @@
+/*
+ *  Copyright 2023 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.idp.graserver.services;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Concurrent cache that loads a missing or invalid value only once: while a load for a key is in
+ * flight, all other callers for that key wait for its result (or its exception) instead of starting
+ * their own.
+ */
+public class SingleFlightCache<K, V> {
+
+  private final Map<K, V> values = new ConcurrentHashMap<>();
+  private final Map<K, CompletableFuture<V>> loads = new ConcurrentHashMap<>();
+  private final Predicate<V> isValid;
+
+  public SingleFlightCache(final Predicate<V> isValid) {
+    this.isValid = isValid;
+  }
+
+  /** Returns the cached value for key if still valid, otherwise the result of loader. */
+  public V get(final K key, final Function<K, V> loader) {
+    final V cached = values.get(key);
+    if (cached != null && isValid.test(cached)) {
+      return cached;
+    }
+    return load(key, loader, true);
+  }
+
+  /**
+   * Like {@link #get(Object, Function)}, but never blocks the caller: a valid cached value is
+   * returned as completed future, a load in flight is joined and a new load runs on executor.
+   */
+  public CompletableFuture<V> getAsync(
+      final K key, final Function<K, V> loader, final Executor executor) {
+    final V cached = values.get(key);
+    if (cached != null && isValid.test(cached)) {
+      return CompletableFuture.completedFuture(cached);
+    }
+    final CompletableFuture<V> runningLoad = loads.get(key);
+    if (runningLoad != null) {
+      return runningLoad.copy();
+    }
+    return CompletableFuture.supplyAsync(() -> get(key, loader), executor);
+  }
+
+  /**
+   * Loads the value for key even if the cached one is still valid. Joins a load already in flight.
+   */
+  public V refresh(final K key, final Function<K, V> loader) {
+    return load(key, loader, false);
+  }
+
+  /** The cached value for key, regardless of its validity. */
+  public Optional<V> peek(final K key) {
+    return Optional.ofNullable(values.get(key));
+  }
+
+  public Set<K> keys() {
+    return Set.copyOf(values.keySet());
+  }
+
+  public void put(final K key, final V value) {
+    values.put(key, value);
+  }
+
+  public void clear() {
+    values.clear();
+  }
+
+  private V load(final K key, final Function<K, V> loader, final boolean reuseValid) {
+    final CompletableFuture<V> load = new CompletableFuture<>();
+    final CompletableFuture<V> runningLoad = loads.putIfAbsent(key, load);
+    if (runningLoad != null) {
+      return await(runningLoad);
+    }
+    try {
+      // a load may have completed between the first lookup and registering this one
+      V value = reuseValid ? values.get(key) : null;
+      if (value == null || !isValid.test(value)) {
+        value = loader.apply(key);
+        values.put(key, value);
+      }
+      load.complete(value);
+      return value;
+    } catch (final RuntimeException e) {
+      load.completeExceptionally(e);
+      throw e;
+    } finally {
+      loads.remove(key, load);
+    }
+  }
+
+  private static <V> V await(final CompletableFuture<V> load) {
+    try {
+      return load.join();
+    } catch (final CompletionException e) {
+      if (e.getCause() instanceof final RuntimeException cause) {
+        throw cause;
+      }
+      throw e;
+    }
+  }
+}
@@ -0,0 +1,98 @@
+/*
+ *  Copyright 2023 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.idp.graserver.services;
+
+import de.gematik.idp.graserver.configuration.FdAuthServerConfiguration;
+import de.gematik.idp.token.JsonWebToken;
+import java.security.PublicKey;
+import java.time.ZonedDateTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.springframework.stereotype.Service;
+
+/**
+ * Remembers the SHA-256 digests of JWS that passed signature verification, together with the key
+ * that verified them. Fetching an unchanged entity statement again then skips the ECDSA
+ * verification. An entry only counts for the same key and until the exp claim of the JWS, so a
+ * rotated key or an expired statement is verified (and rejected) as before. The least recently used
+ * entries are dropped once verifiedJwsMaxEntries is exceeded.
+ */
+@Service
+public class VerifiedJwsCache {
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Map<String, Verification> verifications;
+
+  public VerifiedJwsCache(final FdAuthServerConfiguration fdAuthServerConfiguration) {
+    final int maxEntries = fdAuthServerConfiguration.getCache().getVerifiedJwsMaxEntries();
+    verifications =
+        new LinkedHashMap<>(16, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(final Map.Entry<String, Verification> eldest) {
+            return size() > maxEntries;
+          }
+        };
+  }
+
+  /** Verifies jws with key unless the identical JWS has already been verified with key. */
+  public void verify(final JsonWebToken jws, final PublicKey key) {
+    final String digest = DigestUtils.sha256Hex(jws.getRawString());
+    final long now = ZonedDateTime.now().toEpochSecond();
+    final Verification verification;
+    lock.lock();
+    try {
+      verification = verifications.get(digest);
+    } finally {
+      lock.unlock();
+    }
+    if (verification != null && verification.key().equals(key) && now < verification.exp()) {
+      return;
+    }
+    jws.verify(key);
+    final Object exp = jws.getBodyClaims().get("exp");
+    if (exp instanceof Long expiresAt) {
+      lock.lock();
+      try {
+        verifications.put(digest, new Verification(key, expiresAt));
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+
+  public void clear() {
+    lock.lock();
+    try {
+      verifications.clear();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  int size() {
+    lock.lock();
+    try {
+      return verifications.size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private record Verification(PublicKey key, long exp) {}
+}
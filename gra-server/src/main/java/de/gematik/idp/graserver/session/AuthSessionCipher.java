@@ -0,0 +1,93 @@
+/*
+ *  Copyright 2023 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.idp.graserver.session;
+
+import de.gematik.idp.graserver.exceptions.FdAuthServerException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.SecureRandom;
+import java.util.Optional;
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+
+/**
+ * Encrypts encoded sessions with AES-GCM under the symmetricEncryptionKey before they leave the
+ * heap. The state a session is stored under and the purpose are authenticated along, so a
+ * ciphertext can neither be moved to another state nor between the stores.
+ */
+final class AuthSessionCipher {
+
+  private static final int IV_LENGTH = 12;
+  private static final int TAG_LENGTH_BITS = 128;
+
+  /** Bytes a ciphertext is longer than its plaintext. */
+  static final int OVERHEAD = IV_LENGTH + TAG_LENGTH_BITS / 8;
+
+  private final Key symmetricEncryptionKey;
+  private final byte[] purpose;
+  private final SecureRandom secureRandom = new SecureRandom();
+
+  AuthSessionCipher(final Key symmetricEncryptionKey, final String purpose) {
+    this.symmetricEncryptionKey = symmetricEncryptionKey;
+    this.purpose = purpose.getBytes(StandardCharsets.UTF_8);
+  }
+
+  byte[] encrypt(final byte[] encodedSession, final String fdAuthServerState) {
+    final byte[] iv = new byte[IV_LENGTH];
+    secureRandom.nextBytes(iv);
+    final ByteBuffer ciphertext = ByteBuffer.allocate(encodedSession.length + OVERHEAD).put(iv);
+    try {
+      final Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+      cipher.init(
+          Cipher.ENCRYPT_MODE, symmetricEncryptionKey, new GCMParameterSpec(TAG_LENGTH_BITS, iv));
+      cipher.updateAAD(associatedData(fdAuthServerState));
+      cipher.doFinal(ByteBuffer.wrap(encodedSession), ciphertext);
+    } catch (final GeneralSecurityException e) {
+      throw new FdAuthServerException("Failed to encrypt auth session", e);
+    }
+    return ciphertext.array();
+  }
+
+  /** Empty if the ciphertext was not created by this cipher for fdAuthServerState. */
+  Optional<byte[]> decrypt(final byte[] ciphertext, final String fdAuthServerState) {
+    if (ciphertext.length < OVERHEAD) {
+      return Optional.empty();
+    }
+    try {
+      final Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+      cipher.init(
+          Cipher.DECRYPT_MODE,
+          symmetricEncryptionKey,
+          new GCMParameterSpec(TAG_LENGTH_BITS, ciphertext, 0, IV_LENGTH));
+      cipher.updateAAD(associatedData(fdAuthServerState));
+      return Optional.of(cipher.doFinal(ciphertext, IV_LENGTH, ciphertext.length - IV_LENGTH));
+    } catch (final GeneralSecurityException e) {
+      return Optional.empty();
+    }
+  }
+
+  private byte[] associatedData(final String fdAuthServerState) {
+    final byte[] state = fdAuthServerState.getBytes(StandardCharsets.UTF_8);
+    return ByteBuffer.allocate(purpose.length + 1 + state.length)
+        .put(purpose)
+        .put((byte) 0)
+        .put(state)
+        .array();
+  }
+}
@@ -0,0 +1,133 @@
+/*
+ *  Copyright 2023 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.idp.graserver.session;
+
+import de.gematik.idp.graserver.data.AuthSession;
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+
+/**
+ * Compact binary encoding of an {@link AuthSession}: a version byte followed by all fields in
+ * declaration order. Each field is written as varint (0 for null, otherwise length + 1) and its
+ * UTF-8 bytes.
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public final class AuthSessionCodec {
+
+  private static final byte VERSION = 1;
+
+  public static byte[] encode(final AuthSession session) {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream(512);
+    out.write(VERSION);
+    writeString(out, session.getFrontendClientId());
+    writeString(out, session.getFrontendState());
+    writeString(out, session.getFrontendRedirectUri());
+    writeString(out, session.getFrontendCodeChallenge());
+    writeString(out, session.getFrontendCodeChallengeMethod());
+    writeString(out, session.getFrontendResponseType());
+    writeString(out, session.getFrontendScope());
+    writeString(out, session.getFdAuthServerCodeVerifier());
+    writeString(out, session.getFrontendNonce());
+    writeString(out, session.getIdpIss());
+    writeString(out, session.getFdAuthServerAuthorizationCode());
+    return out.toByteArray();
+  }
+
+  /**
+   * @return empty if encoded is of an unknown version or malformed, like an unknown session
+   */
+  public static Optional<AuthSession> decode(final byte[] encoded) {
+    return decode(ByteBuffer.wrap(encoded));
+  }
+
+  /**
+   * @return empty if in is of an unknown version or malformed, like an unknown session
+   */
+  public static Optional<AuthSession> decode(final ByteBuffer in) {
+    try {
+      if (in.get() != VERSION) {
+        return Optional.empty();
+      }
+      final AuthSession session =
+          AuthSession.builder()
+              .frontendClientId(readString(in))
+              .frontendState(readString(in))
+              .frontendRedirectUri(readString(in))
+              .frontendCodeChallenge(readString(in))
+              .frontendCodeChallengeMethod(readString(in))
+              .frontendResponseType(readString(in))
+              .frontendScope(readString(in))
+              .fdAuthServerCodeVerifier(readString(in))
+              .frontendNonce(readString(in))
+              .idpIss(readString(in))
+              .build();
+      session.setFdAuthServerAuthorizationCode(readString(in));
+      return Optional.of(session);
+    } catch (final BufferUnderflowException | IllegalArgumentException e) {
+      return Optional.empty();
+    }
+  }
+
+  private static void writeString(final ByteArrayOutputStream out, final String value) {
+    if (value == null) {
+      writeVarint(out, 0);
+      return;
+    }
+    final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    writeVarint(out, bytes.length + 1);
+    out.write(bytes, 0, bytes.length);
+  }
+
+  private static String readString(final ByteBuffer in) {
+    final int length = readVarint(in);
+    if (length == 0) {
+      return null;
+    }
+    if (length < 0 || length - 1 > in.remaining()) {
+      throw new IllegalArgumentException("string length exceeds the encoded auth session");
+    }
+    final byte[] bytes = new byte[length - 1];
+    in.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static void writeVarint(final ByteArrayOutputStream out, final int value) {
+    int remaining = value;
+    while ((remaining & ~0x7F) != 0) {
+      out.write((remaining & 0x7F) | 0x80);
+      remaining >>>= 7;
+    }
+    out.write(remaining);
+  }
+
+  private static int readVarint(final ByteBuffer in) {
+    int value = 0;
+    for (int shift = 0; shift < 32; shift += 7) {
+      final byte b = in.get();
+      value |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IllegalArgumentException("varint too long");
+  }
+}
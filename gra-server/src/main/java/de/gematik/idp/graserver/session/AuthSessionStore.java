@@ -0,0 +1,64 @@
+/*
+ *  Copyright 2023 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.idp.graserver.session;
+
+import static de.gematik.idp.graserver.Constants.FD_AUTH_SERVER_STATE_LENGTH;
+
+import de.gematik.idp.crypto.Nonce;
+import de.gematik.idp.graserver.data.AuthSession;
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Storage for the sessions of the App2App flow. A session is created with message nr.1, keyed by
+ * the state sent to the Idp-Sektoral, and consumed with message nr.9.
+ */
+public interface AuthSessionStore {
+
+  /**
+   * Stores a new session under a freshly generated state.
+   *
+   * @return the state to send to the Idp-Sektoral
+   */
+  default String create(final AuthSession session, final Duration timeToLive) {
+    return create(session, timeToLive, Nonce.getNonceAsHex(FD_AUTH_SERVER_STATE_LENGTH));
+  }
+
+  /**
+   * Stores a new session under a state generated ahead by the caller. Stores that derive the state
+   * from the session itself may ignore fdAuthServerState.
+   *
+   * @return the state to send to the Idp-Sektoral
+   */
+  default String create(
+      final AuthSession session, final Duration timeToLive, final String fdAuthServerState) {
+    put(fdAuthServerState, session, timeToLive);
+    return fdAuthServerState;
+  }
+
+  /**
+   * Stores session under fdAuthServerState. Storing a session again under the same state replaces
+   * it and restarts its time to live.
+   */
+  void put(String fdAuthServerState, AuthSession session, Duration timeToLive);
+
+  /** Removes and returns the session stored under fdAuthServerState, if present and not expired. */
+  Optional<AuthSession> remove(String fdAuthServerState);
+
+  /** Number of sessions currently held, may include expired sessions not yet evicted. */
+  int size();
+}
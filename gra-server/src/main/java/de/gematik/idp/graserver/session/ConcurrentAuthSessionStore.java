@@ -0,0 +1,104 @@
+/*
+ *  Copyright 2023 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.idp.graserver.session;
+
+import de.gematik.idp.graserver.configuration.FdAuthServerConfiguration;
+import de.gematik.idp.graserver.data.AuthSession;
+import de.gematik.idp.graserver.exceptions.FdAuthServerException;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * In-memory {@link AuthSessionStore} without a global lock. Sessions live in a {@link
+ * ConcurrentHashMap}, their expiry is tracked by a {@link HierarchicalTimingWheel} that is advanced
+ * once per second.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(
+    value = "fd-auth-server.sessionStore.type",
+    havingValue = "memory",
+    matchIfMissing = true)
+public class ConcurrentAuthSessionStore implements AuthSessionStore {
+
+  private static final long TICK_MILLIS = 1000;
+
+  private final Map<String, StoredSession> sessions = new ConcurrentHashMap<>();
+  private final HierarchicalTimingWheel<Expiry> timingWheel;
+  private final Clock clock;
+  private final int maxSessions;
+
+  @Autowired
+  public ConcurrentAuthSessionStore(final FdAuthServerConfiguration fdAuthServerConfiguration) {
+    this(fdAuthServerConfiguration, Clock.systemUTC());
+  }
+
+  ConcurrentAuthSessionStore(
+      final FdAuthServerConfiguration fdAuthServerConfiguration, final Clock clock) {
+    this.clock = clock;
+    this.maxSessions = fdAuthServerConfiguration.getSessionStore().getMaxSessions();
+    this.timingWheel = new HierarchicalTimingWheel<>(TICK_MILLIS, clock.millis());
+  }
+
+  @Override
+  public void put(
+      final String fdAuthServerState, final AuthSession session, final Duration timeToLive) {
+    if (sessions.size() >= maxSessions && !sessions.containsKey(fdAuthServerState)) {
+      throw new FdAuthServerException(
+          "Maximum amount of auth sessions reached.", HttpStatus.SERVICE_UNAVAILABLE);
+    }
+    final StoredSession storedSession =
+        new StoredSession(session, clock.millis() + timeToLive.toMillis());
+    sessions.put(fdAuthServerState, storedSession);
+    timingWheel.schedule(
+        new Expiry(fdAuthServerState, storedSession), storedSession.expiresAtMillis());
+  }
+
+  @Override
+  public Optional<AuthSession> remove(final String fdAuthServerState) {
+    return Optional.ofNullable(sessions.remove(fdAuthServerState))
+        .filter(storedSession -> storedSession.expiresAtMillis() > clock.millis())
+        .map(StoredSession::session);
+  }
+
+  @Override
+  public int size() {
+    return sessions.size();
+  }
+
+  @Scheduled(fixedRate = TICK_MILLIS, timeUnit = TimeUnit.MILLISECONDS)
+  public void evictExpiredSessions() {
+    timingWheel.advance(
+        clock.millis(),
+        // a replaced or consumed session is left untouched
+        expiry -> sessions.remove(expiry.fdAuthServerState(), expiry.storedSession()));
+  }
+
+  private record StoredSession(AuthSession session, long expiresAtMillis) {}
+
+  private record Expiry(String fdAuthServerState, StoredSession storedSession) {}
+}
@@ -0,0 +1,116 @@
+/*
+ *  Copyright 2023 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.idp.graserver.session;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
+/**
+ * Hierarchical timing wheel (Varghese/Lauck) with {@value #LEVELS} levels of {@value #WHEEL_SIZE}
+ * buckets each. Scheduling is lock free and may happen from any thread; timeouts are handed over
+ * through a queue and only the thread calling {@link #advance(long, Consumer)} touches the buckets.
+ * Timeouts cannot be cancelled, the consumer has to ignore outdated ones.
+ */
+public class HierarchicalTimingWheel<T> {
+
+  private static final int WHEEL_BITS = 6;
+  private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+  private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+  private static final int LEVELS = 4;
+  private static final long MAX_DELTA_TICKS = (1L << (WHEEL_BITS * LEVELS)) - 1;
+
+  private final long tickMillis;
+  private final long startMillis;
+  private final Queue<Timeout<T>> pending = new ConcurrentLinkedQueue<>();
+  private final List<List<Timeout<T>>>[] levels;
+  private long currentTick;
+
+  @SuppressWarnings("unchecked")
+  public HierarchicalTimingWheel(final long tickMillis, final long startMillis) {
+    this.tickMillis = tickMillis;
+    this.startMillis = startMillis;
+    levels = new List[LEVELS];
+    for (int level = 0; level < LEVELS; level++) {
+      levels[level] = new ArrayList<>(WHEEL_SIZE);
+      for (int bucket = 0; bucket < WHEEL_SIZE; bucket++) {
+        levels[level].add(new ArrayList<>());
+      }
+    }
+  }
+
+  /** Schedules item to be handed to the expiry consumer once deadlineMillis has passed. */
+  public void schedule(final T item, final long deadlineMillis) {
+    // round up, an item must never expire before its deadline
+    pending.add(new Timeout<>(item, Math.ceilDiv(deadlineMillis - startMillis, tickMillis)));
+  }
+
+  /**
+   * Moves the wheel forward to nowMillis and passes every item whose deadline has been reached to
+   * onExpiry.
+   */
+  public synchronized void advance(final long nowMillis, final Consumer<T> onExpiry) {
+    drainPending(onExpiry);
+    final long targetTick = (nowMillis - startMillis) / tickMillis;
+    while (currentTick < targetTick) {
+      currentTick++;
+      cascade(1);
+      final List<Timeout<T>> bucket = levels[0].get((int) (currentTick & WHEEL_MASK));
+      bucket.forEach(timeout -> onExpiry.accept(timeout.item()));
+      bucket.clear();
+      drainPending(onExpiry);
+    }
+  }
+
+  private void drainPending(final Consumer<T> onExpiry) {
+    Timeout<T> timeout;
+    while ((timeout = pending.poll()) != null) {
+      if (timeout.deadlineTick() <= currentTick) {
+        onExpiry.accept(timeout.item());
+      } else {
+        place(timeout);
+      }
+    }
+  }
+
+  /** Redistributes the current bucket of level to lower levels whenever all lower levels wrap. */
+  private void cascade(final int level) {
+    if (level >= LEVELS || ((currentTick >> (WHEEL_BITS * (level - 1))) & WHEEL_MASK) != 0) {
+      return;
+    }
+    final List<Timeout<T>> bucket =
+        levels[level].get((int) ((currentTick >> (WHEEL_BITS * level)) & WHEEL_MASK));
+    final List<Timeout<T>> timeouts = new ArrayList<>(bucket);
+    bucket.clear();
+    timeouts.forEach(this::place);
+    cascade(level + 1);
+  }
+
+  private void place(final Timeout<T> timeout) {
+    final long deadlineTick = Math.min(timeout.deadlineTick(), currentTick + MAX_DELTA_TICKS);
+    final long deltaTicks = deadlineTick - currentTick;
+    int level = 0;
+    while (level < LEVELS - 1 && deltaTicks >= 1L << (WHEEL_BITS * (level + 1))) {
+      level++;
+    }
+    levels[level].get((int) ((deadlineTick >> (WHEEL_BITS * level)) & WHEEL_MASK)).add(timeout);
+  }
+
+  private record Timeout<T>(T item, long deadlineTick) {}
+}
@@ -0,0 +1,416 @@
+/*
+ *  Copyright 2023 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.idp.graserver.session;
+
+import de.gematik.idp.graserver.configuration.FdAuthServerConfiguration;
+import de.gematik.idp.graserver.configuration.SessionStoreConfig;
+import de.gematik.idp.graserver.data.AuthSession;
+import de.gematik.idp.graserver.exceptions.FdAuthServerException;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.Key;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Off-heap {@link AuthSessionStore} backed by a memory-mapped file, so sessions survive a restart
+ * of the server. The file holds a hash table of fixed-size slots with linear probing, split into
+ * segments that are mapped and locked independently. The segments are guarded by {@link
+ * ReentrantLock}s instead of monitors, so virtual threads waiting for a segment or a page fault do
+ * not pin their carrier thread. A slot contains status, expiry, state and the session encoded by
+ * {@link AuthSessionCodec} and encrypted by {@link AuthSessionCipher}, so the file does not reveal
+ * the code verifiers. The file is only accessible by its owner.
+ *
+ * <p>Writes go to the page cache and are therefore kept when the process dies; they are only
+ * flushed to disk on shutdown.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(value = "fd-auth-server.sessionStore.type", havingValue = "mapped")
+public class MappedFileAuthSessionStore implements AuthSessionStore {
+
+  private static final int MAGIC = 0x47524153;
+  private static final int FORMAT_VERSION = 2;
+  private static final int HEADER_SIZE = 64;
+  private static final int MAX_SEGMENTS = 64;
+  private static final int MIN_SLOTS_PER_SEGMENT = 256;
+  private static final String CIPHER_PURPOSE = "gras-auth-session-mapped";
+  private static final Set<PosixFilePermission> OWNER_ONLY_FILE =
+      PosixFilePermissions.fromString("rw-------");
+  private static final Set<PosixFilePermission> OWNER_ONLY_DIRECTORY =
+      PosixFilePermissions.fromString("rwx------");
+
+  private static final byte EMPTY = 0;
+  private static final byte USED = 1;
+  private static final byte DELETED = 2;
+
+  // slot layout: status (1), expiresAtMillis (8), state length (2), session length (2), data
+  private static final int EXPIRES_OFFSET = 1;
+  private static final int KEY_LENGTH_OFFSET = 9;
+  private static final int VALUE_LENGTH_OFFSET = 11;
+  private static final int DATA_OFFSET = 13;
+
+  private final MappedByteBuffer[] segments;
+  private final ReentrantLock[] segmentLocks;
+  private final int slotSize;
+  private final int slotsPerSegment;
+  private final int maxSessions;
+  private final Clock clock;
+  private final AuthSessionCipher cipher;
+  private final AtomicInteger size = new AtomicInteger();
+
+  @Autowired
+  public MappedFileAuthSessionStore(
+      final FdAuthServerConfiguration fdAuthServerConfiguration, final Key symmetricEncryptionKey) {
+    this(fdAuthServerConfiguration, symmetricEncryptionKey, Clock.systemUTC());
+  }
+
+  MappedFileAuthSessionStore(
+      final FdAuthServerConfiguration fdAuthServerConfiguration,
+      final Key symmetricEncryptionKey,
+      final Clock clock) {
+    final SessionStoreConfig config = fdAuthServerConfiguration.getSessionStore();
+    if (StringUtils.isBlank(config.getMappedFile())) {
+      throw new IllegalStateException("mappedFile is required for a mapped store");
+    }
+    this.clock = clock;
+    this.cipher = new AuthSessionCipher(symmetricEncryptionKey, CIPHER_PURPOSE);
+    this.maxSessions = config.getMaxSessions();
+    this.slotSize = config.getMappedSlotSize();
+    if (slotSize < DATA_OFFSET + AuthSessionCipher.OVERHEAD + 64 || slotSize > 0xFFFF) {
+      throw new IllegalArgumentException("mappedSlotSize must be between 105 and 65535");
+    }
+    final int segmentCount =
+        Math.clamp(
+            Integer.highestOneBit(Math.max(1, config.getMappedSlots() / MIN_SLOTS_PER_SEGMENT)),
+            1,
+            MAX_SEGMENTS);
+    this.slotsPerSegment = Math.max(1, config.getMappedSlots() / segmentCount);
+    if ((long) slotsPerSegment * slotSize > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("a segment of the session store file exceeds 2 GiB");
+    }
+    this.segments = new MappedByteBuffer[segmentCount];
+    this.segmentLocks = new ReentrantLock[segmentCount];
+    Arrays.setAll(segmentLocks, i -> new ReentrantLock());
+    map(Path.of(config.getMappedFile()));
+  }
+
+  @Override
+  public void put(
+      final String fdAuthServerState, final AuthSession session, final Duration timeToLive) {
+    final byte[] key = fdAuthServerState.getBytes(StandardCharsets.UTF_8);
+    final byte[] value = cipher.encrypt(AuthSessionCodec.encode(session), fdAuthServerState);
+    if (DATA_OFFSET + key.length + value.length > slotSize) {
+      throw new FdAuthServerException(
+          "Auth session exceeds slot size of session store.", HttpStatus.BAD_REQUEST);
+    }
+    final int hash = hash(key);
+    final int segmentIndex = segmentIndex(hash);
+    final MappedByteBuffer segment = segments[segmentIndex];
+    segmentLocks[segmentIndex].lock();
+    try {
+      final long now = clock.millis();
+      final long expiresAtMillis = now + timeToLive.toMillis();
+      int freeOffset = -1;
+      boolean freeSlotWasUsed = false;
+      int slot = startSlot(hash);
+      for (int probe = 0; probe < slotsPerSegment; probe++) {
+        final int offset = slot * slotSize;
+        final byte status = segment.get(offset);
+        if (status == USED && keyEquals(segment, offset, key)) {
+          writeSlot(segment, offset, key, value, expiresAtMillis);
+          return;
+        }
+        if (freeOffset < 0 && (status != USED || isExpired(segment, offset, now))) {
+          freeOffset = offset;
+          freeSlotWasUsed = status == USED;
+        }
+        if (status == EMPTY) {
+          break;
+        }
+        slot = nextSlot(slot);
+      }
+      if (freeOffset < 0 || (!freeSlotWasUsed && size.get() >= maxSessions)) {
+        throw new FdAuthServerException(
+            "Maximum amount of auth sessions reached.", HttpStatus.SERVICE_UNAVAILABLE);
+      }
+      writeSlot(segment, freeOffset, key, value, expiresAtMillis);
+      if (!freeSlotWasUsed) {
+        size.incrementAndGet();
+      }
+    } finally {
+      segmentLocks[segmentIndex].unlock();
+    }
+  }
+
+  @Override
+  public Optional<AuthSession> remove(final String fdAuthServerState) {
+    final byte[] key = fdAuthServerState.getBytes(StandardCharsets.UTF_8);
+    final int hash = hash(key);
+    final int segmentIndex = segmentIndex(hash);
+    final MappedByteBuffer segment = segments[segmentIndex];
+    segmentLocks[segmentIndex].lock();
+    try {
+      int slot = startSlot(hash);
+      for (int probe = 0; probe < slotsPerSegment; probe++) {
+        final int offset = slot * slotSize;
+        final byte status = segment.get(offset);
+        if (status == EMPTY) {
+          return Optional.empty();
+        }
+        if (status == USED && keyEquals(segment, offset, key)) {
+          segment.put(offset, DELETED);
+          size.decrementAndGet();
+          if (isExpired(segment, offset, clock.millis())) {
+            return Optional.empty();
+          }
+          final int valueLength =
+              Short.toUnsignedInt(segment.getShort(offset + VALUE_LENGTH_OFFSET));
+          if (valueLength > slotSize - DATA_OFFSET - key.length) {
+            log.warn("Discarded corrupt auth session slot");
+            return Optional.empty();
+          }
+          final byte[] value = new byte[valueLength];
+          segment.get(offset + DATA_OFFSET + key.length, value);
+          final Optional<byte[]> encoded = cipher.decrypt(value, fdAuthServerState);
+          if (encoded.isEmpty()) {
+            // stored under a different symmetricEncryptionKey
+            log.warn("Discarded auth session that failed decryption");
+          }
+          return encoded.flatMap(AuthSessionCodec::decode);
+        }
+        slot = nextSlot(slot);
+      }
+      return Optional.empty();
+    } finally {
+      segmentLocks[segmentIndex].unlock();
+    }
+  }
+
+  @Override
+  public int size() {
+    return size.get();
+  }
+
+  /**
+   * Frees the slots of expired sessions and turns tombstones that no longer lie inside a probe
+   * chain back into empty slots, so lookups of missing states stay short.
+   */
+  @Scheduled(fixedDelay = 10, timeUnit = TimeUnit.SECONDS)
+  public void evictExpiredSessions() {
+    for (int segmentIndex = 0; segmentIndex < segments.length; segmentIndex++) {
+      final MappedByteBuffer segment = segments[segmentIndex];
+      segmentLocks[segmentIndex].lock();
+      try {
+        final long now = clock.millis();
+        for (int slot = 0; slot < slotsPerSegment; slot++) {
+          final int offset = slot * slotSize;
+          if (segment.get(offset) == USED && isExpired(segment, offset, now)) {
+            segment.put(offset, DELETED);
+            size.decrementAndGet();
+          }
+        }
+        for (int slot = 0; slot < slotsPerSegment; slot++) {
+          if (segment.get(slot * slotSize) != EMPTY) {
+            continue;
+          }
+          // a tombstone directly in front of an empty slot ends every chain running through it
+          int previous = previousSlot(slot);
+          while (segment.get(previous * slotSize) == DELETED) {
+            segment.put(previous * slotSize, EMPTY);
+            previous = previousSlot(previous);
+          }
+        }
+      } finally {
+        segmentLocks[segmentIndex].unlock();
+      }
+    }
+  }
+
+  @PreDestroy
+  public void flush() {
+    for (int segmentIndex = 0; segmentIndex < segments.length; segmentIndex++) {
+      segmentLocks[segmentIndex].lock();
+      try {
+        segments[segmentIndex].force();
+      } finally {
+        segmentLocks[segmentIndex].unlock();
+      }
+    }
+  }
+
+  private void map(final Path file) {
+    final long segmentBytes = (long) slotsPerSegment * slotSize;
+    try (final FileChannel channel = openOwnerOnly(file)) {
+      final boolean reuse = hasMatchingHeader(channel);
+      if (!reuse) {
+        if (channel.size() > 0) {
+          log.warn("Layout of session store file {} changed, discarding stored sessions", file);
+        }
+        channel.truncate(0);
+        channel.write(buildHeader(), 0);
+      }
+      for (int i = 0; i < segments.length; i++) {
+        segments[i] = channel.map(MapMode.READ_WRITE, HEADER_SIZE + i * segmentBytes, segmentBytes);
+      }
+      if (reuse) {
+        restoreSize();
+        log.info("Restored {} auth sessions from {}", size.get(), file);
+      }
+    } catch (final IOException e) {
+      throw new FdAuthServerException("Failed to map session store file " + file, e);
+    }
+  }
+
+  /** Opens file, creating it and missing directories accessible by the owner only. */
+  private static FileChannel openOwnerOnly(final Path file) throws IOException {
+    final Set<StandardOpenOption> options =
+        Set.of(StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    if (!FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+      createParentDirectories(file);
+      return FileChannel.open(file, options);
+    }
+    createParentDirectories(file, PosixFilePermissions.asFileAttribute(OWNER_ONLY_DIRECTORY));
+    final FileChannel channel =
+        FileChannel.open(file, options, PosixFilePermissions.asFileAttribute(OWNER_ONLY_FILE));
+    try {
+      // also a file created by an earlier version
+      Files.setPosixFilePermissions(file, OWNER_ONLY_FILE);
+    } catch (final IOException e) {
+      channel.close();
+      throw e;
+    }
+    return channel;
+  }
+
+  private static void createParentDirectories(final Path file, final FileAttribute<?>... attributes)
+      throws IOException {
+    final Path directory = file.toAbsolutePath().getParent();
+    if (directory != null && !Files.isDirectory(directory)) {
+      Files.createDirectories(directory, attributes);
+    }
+  }
+
+  private boolean hasMatchingHeader(final FileChannel channel) throws IOException {
+    if (channel.size() < HEADER_SIZE) {
+      return false;
+    }
+    final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    channel.read(header, 0);
+    return header.flip().equals(buildHeader());
+  }
+
+  private ByteBuffer buildHeader() {
+    final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    header.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(slotSize);
+    header.putInt(slotsPerSegment).putInt(segments.length);
+    return header.clear();
+  }
+
+  private void restoreSize() {
+    int used = 0;
+    for (final MappedByteBuffer segment : segments) {
+      for (int slot = 0; slot < slotsPerSegment; slot++) {
+        if (segment.get(slot * slotSize) == USED) {
+          used++;
+        }
+      }
+    }
+    size.set(used);
+  }
+
+  private static int hash(final byte[] key) {
+    final int hash = Arrays.hashCode(key) * 0x9E3779B9;
+    return hash ^ (hash >>> 16);
+  }
+
+  private int segmentIndex(final int hash) {
+    return hash & (segments.length - 1);
+  }
+
+  private int startSlot(final int hash) {
+    // the lowest bits already select the segment
+    return Math.floorMod(hash >>> 6, slotsPerSegment);
+  }
+
+  private int nextSlot(final int slot) {
+    return slot + 1 == slotsPerSegment ? 0 : slot + 1;
+  }
+
+  private int previousSlot(final int slot) {
+    return slot == 0 ? slotsPerSegment - 1 : slot - 1;
+  }
+
+  private static boolean isExpired(
+      final MappedByteBuffer segment, final int offset, final long now) {
+    return segment.getLong(offset + EXPIRES_OFFSET) <= now;
+  }
+
+  private static boolean keyEquals(
+      final MappedByteBuffer segment, final int offset, final byte[] key) {
+    if (Short.toUnsignedInt(segment.getShort(offset + KEY_LENGTH_OFFSET)) != key.length) {
+      return false;
+    }
+    for (int i = 0; i < key.length; i++) {
+      if (segment.get(offset + DATA_OFFSET + i) != key[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static void writeSlot(
+      final MappedByteBuffer segment,
+      final int offset,
+      final byte[] key,
+      final byte[] value,
+      final long expiresAtMillis) {
+    // status is written last, after a crash a slot is either complete or free
+    segment.put(offset, DELETED);
+    segment.put(offset + DATA_OFFSET, key);
+    segment.put(offset + DATA_OFFSET + key.length, value);
+    segment.putShort(offset + KEY_LENGTH_OFFSET, (short) key.length);
+    segment.putShort(offset + VALUE_LENGTH_OFFSET, (short) value.length);
+    segment.putLong(offset + EXPIRES_OFFSET, expiresAtMillis);
+    segment.put(offset, USED);
+  }
+}
@@ -0,0 +1,230 @@
+/*
+ *  Copyright 2023 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.idp.graserver.session;
+
+import de.gematik.idp.graserver.configuration.FdAuthServerConfiguration;
+import de.gematik.idp.graserver.configuration.SessionStoreConfig;
+import de.gematik.idp.graserver.data.AuthSession;
+import de.gematik.idp.graserver.exceptions.FdAuthServerException;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.Key;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * {@link AuthSessionStore} shared by several nodes behind a non-sticky load balancer. Every state
+ * is mapped by rendezvous hashing to an owner and a backup node, which hold the session in their
+ * local {@link ConcurrentAuthSessionStore}. Any node can serve message nr.9: it takes the session
+ * from the owner, or from the backup if the owner is unreachable, and deletes the remaining copy. A
+ * flow thus costs the same few peer calls regardless of the cluster size.
+ *
+ * <p>Nodes talk via {@link SessionPeerProtocol}, sessions leave the node only encrypted under the
+ * symmetricEncryptionKey, which has to be equal on every node. If neither owner nor backup can be
+ * reached, the session is kept locally, so it is found at least when the flow returns to this node.
+ * Only then: as long as owner or backup holds the session, a local copy could still be taken here
+ * after another node has consumed the session there.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(value = "fd-auth-server.sessionStore.type", havingValue = "replicated")
+public class ReplicatedAuthSessionStore implements AuthSessionStore {
+
+  private static final int REPLICAS = 2;
+
+  private final ConcurrentAuthSessionStore localStore;
+  private final AuthSessionCipher cipher;
+  private final List<Node> nodes;
+  private final SessionReplicationServer replicationServer;
+
+  public ReplicatedAuthSessionStore(
+      final FdAuthServerConfiguration fdAuthServerConfiguration, final Key symmetricEncryptionKey) {
+    final SessionStoreConfig config = fdAuthServerConfiguration.getSessionStore();
+    if (StringUtils.isBlank(config.getReplicationSecret())) {
+      throw new IllegalStateException("replicationSecret is required for a replicated store");
+    }
+    if (!config.getReplicationNodes().contains(config.getReplicationNodeId())) {
+      throw new IllegalStateException(
+          "replicationNodes do not contain this node " + config.getReplicationNodeId());
+    }
+    this.localStore = new ConcurrentAuthSessionStore(fdAuthServerConfiguration);
+    this.cipher = new AuthSessionCipher(symmetricEncryptionKey, SessionPeerProtocol.CIPHER_PURPOSE);
+    this.nodes =
+        config.getReplicationNodes().stream()
+            .map(
+                nodeId ->
+                    new Node(
+                        seed(nodeId),
+                        nodeId.equals(config.getReplicationNodeId())
+                            ? null
+                            : new SessionPeerClient(
+                                nodeId,
+                                config.getReplicationSecret(),
+                                config.getReplicationTimeout())))
+            .toList();
+    try {
+      this.replicationServer = new SessionReplicationServer(config, cipher, localStore);
+    } catch (final IOException e) {
+      throw new FdAuthServerException("Failed to open replication port", e);
+    }
+    log.info(
+        "Session replication listening on port {}, nodes {}",
+        replicationServer.getPort(),
+        config.getReplicationNodes());
+  }
+
+  @Override
+  public void put(
+      final String fdAuthServerState, final AuthSession session, final Duration timeToLive) {
+    byte[] encoded = null;
+    boolean stored = false;
+    for (final Node node : replicasOf(fdAuthServerState)) {
+      if (node.isSelf()) {
+        localStore.put(fdAuthServerState, session, timeToLive);
+        stored = true;
+        continue;
+      }
+      if (encoded == null) {
+        encoded = cipher.encrypt(AuthSessionCodec.encode(session), fdAuthServerState);
+      }
+      try {
+        node.client().put(fdAuthServerState, encoded, timeToLive);
+        stored = true;
+      } catch (final IOException e) {
+        log.warn("Replicating session to {} failed: {}", node.client().getNodeId(), e.getMessage());
+      }
+    }
+    // a fallback next to a replica would outlive the session being taken at another node
+    if (!stored) {
+      localStore.put(fdAuthServerState, session, timeToLive);
+    }
+  }
+
+  @Override
+  public Optional<AuthSession> remove(final String fdAuthServerState) {
+    final List<Node> replicas = replicasOf(fdAuthServerState);
+    for (final Node node : replicas) {
+      final Optional<AuthSession> session = take(node, fdAuthServerState);
+      if (session.isPresent()) {
+        replicas.stream()
+            .filter(replica -> replica != node)
+            .forEach(replica -> delete(replica, fdAuthServerState));
+        localStore.remove(fdAuthServerState);
+        return session;
+      }
+    }
+    // kept locally because owner and backup were unreachable when it was stored
+    return localStore.remove(fdAuthServerState);
+  }
+
+  /** Number of sessions held by this node, as owner, backup or fallback. */
+  @Override
+  public int size() {
+    return localStore.size();
+  }
+
+  @Scheduled(fixedRate = 1000, timeUnit = TimeUnit.MILLISECONDS)
+  public void evictExpiredSessions() {
+    localStore.evictExpiredSessions();
+  }
+
+  int getReplicationPort() {
+    return replicationServer.getPort();
+  }
+
+  @PreDestroy
+  public void close() throws IOException {
+    replicationServer.close();
+    nodes.stream().filter(node -> !node.isSelf()).forEach(node -> node.client().close());
+  }
+
+  private Optional<AuthSession> take(final Node node, final String fdAuthServerState) {
+    if (node.isSelf()) {
+      return localStore.remove(fdAuthServerState);
+    }
+    try {
+      final Optional<byte[]> session = node.client().take(fdAuthServerState);
+      if (session.isEmpty()) {
+        return Optional.empty();
+      }
+      return AuthSessionCodec.decode(
+          cipher
+              .decrypt(session.get(), fdAuthServerState)
+              .orElseThrow(
+                  () ->
+                      new IOException(
+                          "Session from " + node.client().getNodeId() + " failed decryption")));
+    } catch (final IOException e) {
+      log.warn("Taking session from {} failed: {}", node.client().getNodeId(), e.getMessage());
+      return Optional.empty();
+    }
+  }
+
+  private void delete(final Node node, final String fdAuthServerState) {
+    if (node.isSelf()) {
+      localStore.remove(fdAuthServerState);
+      return;
+    }
+    try {
+      node.client().delete(fdAuthServerState);
+    } catch (final IOException e) {
+      log.warn("Deleting session at {} failed: {}", node.client().getNodeId(), e.getMessage());
+    }
+  }
+
+  /** Owner first, then backup: the nodes with the highest rendezvous scores for the state. */
+  private List<Node> replicasOf(final String fdAuthServerState) {
+    final long stateHash = seed(fdAuthServerState);
+    return nodes.stream()
+        .sorted(Comparator.comparingLong((Node node) -> mix(stateHash ^ node.seed())).reversed())
+        .limit(REPLICAS)
+        .toList();
+  }
+
+  private static long seed(final String value) {
+    return mix(Arrays.hashCode(value.getBytes(StandardCharsets.UTF_8)));
+  }
+
+  /** Finalizer of MurmurHash3, spreads every input bit over the whole hash. */
+  private static long mix(final long value) {
+    long hash = value;
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+    return hash;
+  }
+
+  /** A node of the cluster, client is null for this node itself. */
+  private record Node(long seed, SessionPeerClient client) {
+
+    boolean isSelf() {
+      return client == null;
+    }
+  }
+}
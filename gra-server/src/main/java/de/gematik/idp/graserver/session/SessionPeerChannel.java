@@ -0,0 +1,108 @@
+/*
+ *  Copyright 2023 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.idp.graserver.session;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Authenticated connection between two nodes after the {@link SessionPeerProtocol} handshake. Every
+ * frame is encrypted with AES-GCM under a key derived from the replication secret and both
+ * challenges of the handshake, so frames can neither be read nor forged nor moved to another
+ * connection. The nonce is made of the direction and a counter per direction, the receiver expects
+ * the next counter, so a frame can neither be replayed nor reordered nor reflected.
+ *
+ * <p>Not thread safe, a connection is used by one thread at a time.
+ */
+final class SessionPeerChannel {
+
+  private static final int TAG_LENGTH_BITS = 128;
+  private static final int NONCE_LENGTH = 12;
+  private static final int MAX_FRAME_LENGTH = SessionPeerProtocol.MAX_SESSION_LENGTH + 1024;
+
+  private final DataInputStream in;
+  private final DataOutputStream out;
+  private final Key frameKey;
+  private final int sendDirection;
+  private final int receiveDirection;
+  private final ByteArrayOutputStream frame = new ByteArrayOutputStream();
+  private final DataOutputStream frameOut = new DataOutputStream(frame);
+  private long sendCounter;
+  private long receiveCounter;
+
+  SessionPeerChannel(
+      final DataInputStream in,
+      final DataOutputStream out,
+      final byte[] frameKey,
+      final boolean client) {
+    this.in = in;
+    this.out = out;
+    this.frameKey = new SecretKeySpec(frameKey, "AES");
+    this.sendDirection = client ? 0 : 1;
+    this.receiveDirection = client ? 1 : 0;
+  }
+
+  /** Starts the next frame to send, written by the caller and sent with {@link #send}. */
+  DataOutputStream frame() {
+    frame.reset();
+    return frameOut;
+  }
+
+  void send() throws IOException {
+    final byte[] sealed =
+        apply(Cipher.ENCRYPT_MODE, nonce(sendDirection, sendCounter++), frame.toByteArray());
+    out.writeInt(sealed.length);
+    out.write(sealed);
+    out.flush();
+  }
+
+  /** Reads the next frame, fails if it was not sent as the next frame of the peer. */
+  DataInputStream receive() throws IOException {
+    final int length = in.readInt();
+    if (length < TAG_LENGTH_BITS / 8 || length > MAX_FRAME_LENGTH) {
+      throw new IOException("Invalid frame length " + length);
+    }
+    final byte[] sealed = new byte[length];
+    in.readFully(sealed);
+    return new DataInputStream(
+        new ByteArrayInputStream(
+            apply(Cipher.DECRYPT_MODE, nonce(receiveDirection, receiveCounter++), sealed)));
+  }
+
+  private byte[] apply(final int mode, final byte[] nonce, final byte[] input) throws IOException {
+    try {
+      final Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+      cipher.init(mode, frameKey, new GCMParameterSpec(TAG_LENGTH_BITS, nonce));
+      return cipher.doFinal(input);
+    } catch (final GeneralSecurityException e) {
+      throw new IOException("Frame failed authentication", e);
+    }
+  }
+
+  private static byte[] nonce(final int direction, final long counter) {
+    return ByteBuffer.allocate(NONCE_LENGTH).putInt(direction).putLong(counter).array();
+  }
+}
@@ -0,0 +1,206 @@
+/*
+ *  Copyright 2023 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.idp.graserver.session;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/** Client side of the {@link SessionPeerProtocol} towards one node, with pooled connections. */
+class SessionPeerClient implements Closeable {
+
+  private static final int MAX_IDLE_CONNECTIONS = 32;
+
+  private final String nodeId;
+  private final String host;
+  private final int port;
+  private final String secret;
+  private final int timeoutMillis;
+  private final BlockingQueue<Connection> idleConnections =
+      new ArrayBlockingQueue<>(MAX_IDLE_CONNECTIONS);
+
+  SessionPeerClient(final String nodeId, final String secret, final Duration timeout) {
+    final int separator = nodeId.lastIndexOf(':');
+    this.nodeId = nodeId;
+    this.host = nodeId.substring(0, separator);
+    this.port = Integer.parseInt(nodeId.substring(separator + 1));
+    this.secret = secret;
+    this.timeoutMillis = (int) timeout.toMillis();
+  }
+
+  String getNodeId() {
+    return nodeId;
+  }
+
+  void put(final String fdAuthServerState, final byte[] session, final Duration timeToLive)
+      throws IOException {
+    call(
+        connection -> {
+          final DataOutputStream request = connection.channel().frame();
+          request.writeByte(SessionPeerProtocol.PUT);
+          request.writeUTF(fdAuthServerState);
+          request.writeLong(timeToLive.toMillis());
+          SessionPeerProtocol.writeBytes(request, session);
+          connection.channel().send();
+          expectStatus(connection.channel().receive().readByte(), SessionPeerProtocol.OK);
+          return null;
+        },
+        true);
+  }
+
+  /** Not repeated if it fails: the node may have removed the session already. */
+  Optional<byte[]> take(final String fdAuthServerState) throws IOException {
+    return call(
+        connection -> {
+          final DataOutputStream request = connection.channel().frame();
+          request.writeByte(SessionPeerProtocol.TAKE);
+          request.writeUTF(fdAuthServerState);
+          connection.channel().send();
+          final DataInputStream response = connection.channel().receive();
+          final byte status = response.readByte();
+          if (status == SessionPeerProtocol.NOT_FOUND) {
+            return Optional.empty();
+          }
+          expectStatus(status, SessionPeerProtocol.OK);
+          return Optional.of(SessionPeerProtocol.readBytes(response));
+        },
+        false);
+  }
+
+  void delete(final String fdAuthServerState) throws IOException {
+    call(
+        connection -> {
+          final DataOutputStream request = connection.channel().frame();
+          request.writeByte(SessionPeerProtocol.DELETE);
+          request.writeUTF(fdAuthServerState);
+          connection.channel().send();
+          expectStatus(connection.channel().receive().readByte(), SessionPeerProtocol.OK);
+          return null;
+        },
+        true);
+  }
+
+  @Override
+  public void close() {
+    Connection connection;
+    while ((connection = idleConnections.poll()) != null) {
+      connection.close();
+    }
+  }
+
+  /**
+   * Runs exchange on a pooled connection, or on a new one if none is left. The node may have closed
+   * a pooled connection in the meantime, which only shows when its answer is read. An idempotent
+   * exchange is then repeated on the next connection. Any other exchange may already have been
+   * applied by the node, so a pooled connection is checked with a PING first and the exchange
+   * itself is never repeated.
+   */
+  private <T> T call(final Exchange<T> exchange, final boolean idempotent) throws IOException {
+    Connection connection;
+    while ((connection = idleConnections.poll()) != null) {
+      if (!idempotent) {
+        if (answersPing(connection)) {
+          return call(connection, exchange);
+        }
+        continue;
+      }
+      try {
+        return call(connection, exchange);
+      } catch (final IOException e) {
+        // the node may have been restarted since the connection was pooled
+      }
+    }
+    return call(connect(), exchange);
+  }
+
+  private boolean answersPing(final Connection connection) {
+    try {
+      connection.channel().frame().writeByte(SessionPeerProtocol.PING);
+      connection.channel().send();
+      if (connection.channel().receive().readByte() == SessionPeerProtocol.OK) {
+        return true;
+      }
+    } catch (final IOException e) {
+      // the node may have been restarted since the connection was pooled
+    }
+    connection.close();
+    return false;
+  }
+
+  private <T> T call(final Connection connection, final Exchange<T> exchange) throws IOException {
+    try {
+      final T result = exchange.run(connection);
+      if (!idleConnections.offer(connection)) {
+        connection.close();
+      }
+      return result;
+    } catch (final IOException | RuntimeException e) {
+      connection.close();
+      throw e;
+    }
+  }
+
+  private Connection connect() throws IOException {
+    final Socket socket = new Socket();
+    try {
+      socket.setTcpNoDelay(true);
+      socket.setSoTimeout(timeoutMillis);
+      socket.connect(new InetSocketAddress(host, port), timeoutMillis);
+      return new Connection(
+          socket,
+          SessionPeerProtocol.clientHandshake(
+              new DataInputStream(new BufferedInputStream(socket.getInputStream())),
+              new DataOutputStream(new BufferedOutputStream(socket.getOutputStream())),
+              secret));
+    } catch (final IOException e) {
+      socket.close();
+      throw e;
+    }
+  }
+
+  private void expectStatus(final byte status, final byte expected) throws IOException {
+    if (status != expected) {
+      throw new IOException("Node " + nodeId + " answered with status " + status);
+    }
+  }
+
+  @FunctionalInterface
+  private interface Exchange<T> {
+
+    T run(Connection connection) throws IOException;
+  }
+
+  private record Connection(Socket socket, SessionPeerChannel channel) {
+
+    void close() {
+      try {
+        socket.close();
+      } catch (final IOException e) {
+        // connection is discarded anyway
+      }
+    }
+  }
+}
@@ -0,0 +1,170 @@
+/*
+ *  Copyright 2023 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.idp.graserver.session;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Optional;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+
+/**
+ * Wire format between the nodes of a {@link ReplicatedAuthSessionStore}. A connection starts with a
+ * challenge-response handshake: the client sends the magic number and a random challenge, the
+ * server answers with its own challenge and an HMAC over both under the shared secret, and the
+ * client proves the secret the same way before the server confirms with {@link #OK}. The secret
+ * itself never goes over the wire. Afterwards the connection is a {@link SessionPeerChannel}, whose
+ * frames are encrypted and authenticated under a key derived from the secret and both challenges.
+ * It carries requests
+ *
+ * <ul>
+ *   <li>{@link #PUT}: state, time to live in millis, encrypted session
+ *   <li>{@link #TAKE}: state, answered with the encrypted session if present
+ *   <li>{@link #DELETE}: state
+ *   <li>{@link #PING}: no arguments, checks a pooled connection
+ * </ul>
+ *
+ * each answered by a frame starting with a status byte. Sessions are encoded by {@link
+ * AuthSessionCodec} and encrypted by {@link AuthSessionCipher}, so a peer without the
+ * symmetricEncryptionKey learns nothing from them.
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+final class SessionPeerProtocol {
+
+  static final int MAGIC = 0x47524153;
+
+  static final byte PUT = 1;
+  static final byte TAKE = 2;
+  static final byte DELETE = 3;
+  static final byte PING = 4;
+
+  static final byte OK = 0;
+  static final byte NOT_FOUND = 1;
+  static final byte FAILED = 2;
+
+  /** Purpose of the {@link AuthSessionCipher} for sessions sent to other nodes. */
+  static final String CIPHER_PURPOSE = "gras-auth-session-replication";
+
+  private static final int CHALLENGE_LENGTH = 32;
+  static final int MAX_SESSION_LENGTH = 64 * 1024;
+  private static final byte[] CLIENT_ROLE = "client".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] SERVER_ROLE = "server".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] FRAME_KEY_ROLE = "frames".getBytes(StandardCharsets.US_ASCII);
+  private static final SecureRandom SECURE_RANDOM = new SecureRandom();
+
+  /** Client side of the handshake, fails if the server does not know the secret. */
+  static SessionPeerChannel clientHandshake(
+      final DataInputStream in, final DataOutputStream out, final String secret)
+      throws IOException {
+    final byte[] clientChallenge = newChallenge();
+    out.writeInt(MAGIC);
+    out.write(clientChallenge);
+    out.flush();
+    final byte[] serverChallenge = readBlock(in);
+    if (!MessageDigest.isEqual(
+        readBlock(in), proof(secret, SERVER_ROLE, clientChallenge, serverChallenge))) {
+      throw new IOException("Node failed to prove the replication secret");
+    }
+    out.write(proof(secret, CLIENT_ROLE, clientChallenge, serverChallenge));
+    out.flush();
+    if (in.readByte() != OK) {
+      throw new IOException("Node rejected the handshake");
+    }
+    return new SessionPeerChannel(
+        in, out, proof(secret, FRAME_KEY_ROLE, clientChallenge, serverChallenge), true);
+  }
+
+  /**
+   * Server side of the handshake.
+   *
+   * @return empty if the client does not speak this protocol or does not know the secret
+   */
+  static Optional<SessionPeerChannel> serverHandshake(
+      final DataInputStream in, final DataOutputStream out, final String secret)
+      throws IOException {
+    if (in.readInt() != MAGIC) {
+      return Optional.empty();
+    }
+    final byte[] clientChallenge = readBlock(in);
+    final byte[] serverChallenge = newChallenge();
+    out.write(serverChallenge);
+    out.write(proof(secret, SERVER_ROLE, clientChallenge, serverChallenge));
+    out.flush();
+    if (!MessageDigest.isEqual(
+        readBlock(in), proof(secret, CLIENT_ROLE, clientChallenge, serverChallenge))) {
+      return Optional.empty();
+    }
+    out.writeByte(OK);
+    out.flush();
+    return Optional.of(
+        new SessionPeerChannel(
+            in, out, proof(secret, FRAME_KEY_ROLE, clientChallenge, serverChallenge), false));
+  }
+
+  static void writeBytes(final DataOutputStream out, final byte[] bytes) throws IOException {
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  static byte[] readBytes(final DataInputStream in) throws IOException {
+    final int length = in.readInt();
+    if (length < 0 || length > MAX_SESSION_LENGTH) {
+      throw new IOException("Invalid frame length " + length);
+    }
+    return in.readNBytes(length);
+  }
+
+  private static byte[] newChallenge() {
+    final byte[] challenge = new byte[CHALLENGE_LENGTH];
+    SECURE_RANDOM.nextBytes(challenge);
+    return challenge;
+  }
+
+  /** Reads a challenge or a proof, HMAC-SHA256 proofs are as long as challenges. */
+  private static byte[] readBlock(final DataInputStream in) throws IOException {
+    final byte[] block = new byte[CHALLENGE_LENGTH];
+    in.readFully(block);
+    return block;
+  }
+
+  /**
+   * HMAC over role and both challenges, the role keeps a proof from being reflected and the frame
+   * key apart from both proofs.
+   */
+  private static byte[] proof(
+      final String secret,
+      final byte[] role,
+      final byte[] clientChallenge,
+      final byte[] serverChallenge) {
+    try {
+      final Mac mac = Mac.getInstance("HmacSHA256");
+      mac.init(new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+      mac.update(role);
+      mac.update(clientChallenge);
+      return mac.doFinal(serverChallenge);
+    } catch (final GeneralSecurityException e) {
+      throw new IllegalStateException("HmacSHA256 is not available", e);
+    }
+  }
+}
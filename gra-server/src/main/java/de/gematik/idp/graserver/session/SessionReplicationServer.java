@@ -0,0 +1,200 @@
+/*
+ *  Copyright 2023 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.idp.graserver.session;
+
+import de.gematik.idp.graserver.configuration.SessionStoreConfig;
+import de.gematik.idp.graserver.data.AuthSession;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Server side of the {@link SessionPeerProtocol}. Requests of other nodes are applied to the local
+ * store of this node. Every connection is served by its own thread, up to
+ * replicationMaxConnections; further connections are closed right away.
+ */
+@Slf4j
+class SessionReplicationServer implements Closeable {
+
+  private final ServerSocket serverSocket;
+  private final String secret;
+  private final int handshakeTimeoutMillis;
+  private final AuthSessionCipher cipher;
+  private final AuthSessionStore localStore;
+  private final Thread acceptor;
+  private final ThreadPoolExecutor executor;
+
+  SessionReplicationServer(
+      final SessionStoreConfig config,
+      final AuthSessionCipher cipher,
+      final AuthSessionStore localStore)
+      throws IOException {
+    this.serverSocket = new ServerSocket();
+    serverSocket.bind(new InetSocketAddress(bindAddress(config), config.getReplicationPort()));
+    this.secret = config.getReplicationSecret();
+    this.handshakeTimeoutMillis = (int) config.getReplicationTimeout().toMillis();
+    this.cipher = cipher;
+    this.localStore = localStore;
+    final AtomicInteger threadCount = new AtomicInteger();
+    this.executor =
+        new ThreadPoolExecutor(
+            0,
+            config.getReplicationMaxConnections(),
+            1,
+            TimeUnit.MINUTES,
+            new SynchronousQueue<>(),
+            runnable -> {
+              final Thread thread =
+                  new Thread(runnable, "session-replication-" + threadCount.incrementAndGet());
+              thread.setDaemon(true);
+              return thread;
+            });
+    this.acceptor = new Thread(this::acceptConnections, "session-replication-acceptor");
+    acceptor.setDaemon(true);
+    acceptor.start();
+  }
+
+  int getPort() {
+    return serverSocket.getLocalPort();
+  }
+
+  @Override
+  public void close() throws IOException {
+    serverSocket.close();
+    executor.shutdownNow();
+  }
+
+  /** replicationBindAddress, or the host of replicationNodeId if not set. */
+  private static String bindAddress(final SessionStoreConfig config) {
+    if (StringUtils.isNotBlank(config.getReplicationBindAddress())) {
+      return config.getReplicationBindAddress();
+    }
+    final String nodeId = config.getReplicationNodeId();
+    return nodeId.substring(0, nodeId.lastIndexOf(':'));
+  }
+
+  private void acceptConnections() {
+    while (!serverSocket.isClosed()) {
+      try {
+        final Socket socket = serverSocket.accept();
+        try {
+          executor.execute(() -> serve(socket));
+        } catch (final RejectedExecutionException e) {
+          log.warn(
+              "Rejected replication connection from {}, all {} connections in use",
+              socket.getRemoteSocketAddress(),
+              executor.getMaximumPoolSize());
+          socket.close();
+        }
+      } catch (final IOException e) {
+        if (!serverSocket.isClosed()) {
+          log.warn("Accepting replication connection failed", e);
+        }
+      }
+    }
+  }
+
+  private void serve(final Socket socket) {
+    try (socket) {
+      socket.setTcpNoDelay(true);
+      socket.setSoTimeout(handshakeTimeoutMillis);
+      final Optional<SessionPeerChannel> channel =
+          SessionPeerProtocol.serverHandshake(
+              new DataInputStream(new BufferedInputStream(socket.getInputStream())),
+              new DataOutputStream(new BufferedOutputStream(socket.getOutputStream())),
+              secret);
+      if (channel.isEmpty()) {
+        log.warn("Rejected replication connection from {}", socket.getRemoteSocketAddress());
+        return;
+      }
+      // authenticated connections are pooled by the peer and may stay idle
+      socket.setSoTimeout(0);
+      while (true) {
+        final DataInputStream request = channel.get().receive();
+        handleRequest(request, channel.get().frame());
+        channel.get().send();
+      }
+    } catch (final EOFException | SocketException e) {
+      // peer closed the connection
+    } catch (final IOException e) {
+      log.warn("Replication connection from {} failed", socket.getRemoteSocketAddress(), e);
+    }
+  }
+
+  /** Reads the request from in and writes the answer to out, both a single frame. */
+  private void handleRequest(final DataInputStream in, final DataOutputStream out)
+      throws IOException {
+    final byte operation = in.readByte();
+    if (operation == SessionPeerProtocol.PING) {
+      out.writeByte(SessionPeerProtocol.OK);
+      return;
+    }
+    final String fdAuthServerState = in.readUTF();
+    switch (operation) {
+      case SessionPeerProtocol.PUT -> {
+        final Duration timeToLive = Duration.ofMillis(in.readLong());
+        final byte[] session = SessionPeerProtocol.readBytes(in);
+        try {
+          final byte[] encoded =
+              cipher
+                  .decrypt(session, fdAuthServerState)
+                  .orElseThrow(() -> new IllegalArgumentException("Session failed decryption"));
+          final AuthSession decoded =
+              AuthSessionCodec.decode(encoded)
+                  .orElseThrow(() -> new IllegalArgumentException("Malformed session"));
+          localStore.put(fdAuthServerState, decoded, timeToLive);
+          out.writeByte(SessionPeerProtocol.OK);
+        } catch (final RuntimeException e) {
+          log.warn("Storing replicated session failed: {}", e.getMessage());
+          out.writeByte(SessionPeerProtocol.FAILED);
+        }
+      }
+      case SessionPeerProtocol.TAKE -> {
+        final Optional<AuthSession> session = localStore.remove(fdAuthServerState);
+        if (session.isPresent()) {
+          out.writeByte(SessionPeerProtocol.OK);
+          SessionPeerProtocol.writeBytes(
+              out, cipher.encrypt(AuthSessionCodec.encode(session.get()), fdAuthServerState));
+        } else {
+          out.writeByte(SessionPeerProtocol.NOT_FOUND);
+        }
+      }
+      case SessionPeerProtocol.DELETE -> {
+        localStore.remove(fdAuthServerState);
+        out.writeByte(SessionPeerProtocol.OK);
+      }
+      default -> throw new IOException("Unknown operation " + operation);
+    }
+  }
+}
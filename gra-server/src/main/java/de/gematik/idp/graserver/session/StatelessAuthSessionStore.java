@@ -0,0 +1,170 @@
+/*
+ *  Copyright 2023 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.idp.graserver.session;
+
+import de.gematik.idp.graserver.configuration.FdAuthServerConfiguration;
+import de.gematik.idp.graserver.data.AuthSession;
+import de.gematik.idp.graserver.exceptions.FdAuthServerException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.SecureRandom;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Optional;
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+
+/**
+ * {@link AuthSessionStore} without server-side state: the session is encoded by {@link
+ * AuthSessionCodec}, encrypted and authenticated with AES-GCM under the symmetricEncryptionKey and
+ * sent to the Idp-Sektoral as state. Any node can decrypt it in message nr.9, no memory is held per
+ * flow.
+ *
+ * <p>The state is sent before the PAR response arrives and cannot change afterwards, so every
+ * session lives for statelessTimeToLive and {@link #put} has no effect. A state can be presented
+ * more than once until it expires; it is only worth something together with an authorization code
+ * of the Idp-Sektoral, which is bound to the code verifier inside the session.
+ *
+ * <p>The state grows with the frontend parameters, so sessions whose state would exceed
+ * statelessMaxStateLength are rejected with 400 instead of failing at the Idp-Sektoral.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(value = "fd-auth-server.sessionStore.type", havingValue = "stateless")
+public class StatelessAuthSessionStore implements AuthSessionStore {
+
+  private static final byte VERSION = 1;
+  private static final int IV_LENGTH = 12;
+  private static final int TAG_LENGTH_BITS = 128;
+  private static final int MIN_STATE_LENGTH = 1 + IV_LENGTH + TAG_LENGTH_BITS / 8 + Long.BYTES;
+  // separates these ciphertexts from other uses of the symmetricEncryptionKey
+  private static final byte[] ASSOCIATED_DATA =
+      "gras-auth-session-state".getBytes(StandardCharsets.UTF_8);
+
+  private final Key symmetricEncryptionKey;
+  private final Duration timeToLive;
+  private final int maxStateLength;
+  private final Clock clock;
+  private final SecureRandom secureRandom = new SecureRandom();
+
+  @Autowired
+  public StatelessAuthSessionStore(
+      final Key symmetricEncryptionKey, final FdAuthServerConfiguration fdAuthServerConfiguration) {
+    this(symmetricEncryptionKey, fdAuthServerConfiguration, Clock.systemUTC());
+  }
+
+  StatelessAuthSessionStore(
+      final Key symmetricEncryptionKey,
+      final FdAuthServerConfiguration fdAuthServerConfiguration,
+      final Clock clock) {
+    this.symmetricEncryptionKey = symmetricEncryptionKey;
+    this.timeToLive = fdAuthServerConfiguration.getSessionStore().getStatelessTimeToLive();
+    this.maxStateLength = fdAuthServerConfiguration.getSessionStore().getStatelessMaxStateLength();
+    this.clock = clock;
+  }
+
+  /** The state is the encrypted session, a state generated ahead is of no use here. */
+  @Override
+  public String create(
+      final AuthSession session, final Duration parTimeToLive, final String fdAuthServerState) {
+    return create(session, parTimeToLive);
+  }
+
+  @Override
+  public String create(final AuthSession session, final Duration parTimeToLive) {
+    final byte[] encoded = AuthSessionCodec.encode(session);
+    final int stateLength = MIN_STATE_LENGTH + encoded.length;
+    // base64url without padding
+    if ((stateLength * 4 + 2) / 3 > maxStateLength) {
+      throw new FdAuthServerException(
+          "Auth session exceeds the maximum state length of " + maxStateLength,
+          HttpStatus.BAD_REQUEST);
+    }
+    final byte[] iv = new byte[IV_LENGTH];
+    secureRandom.nextBytes(iv);
+    final ByteBuffer plaintext = ByteBuffer.allocate(Long.BYTES + encoded.length);
+    plaintext.putLong(clock.millis() + timeToLive.toMillis()).put(encoded).flip();
+    final ByteBuffer state =
+        ByteBuffer.allocate(1 + IV_LENGTH + plaintext.remaining() + TAG_LENGTH_BITS / 8);
+    state.put(VERSION).put(iv);
+    try {
+      final Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+      cipher.init(
+          Cipher.ENCRYPT_MODE, symmetricEncryptionKey, new GCMParameterSpec(TAG_LENGTH_BITS, iv));
+      cipher.updateAAD(ASSOCIATED_DATA);
+      cipher.doFinal(plaintext, state);
+    } catch (final GeneralSecurityException e) {
+      throw new FdAuthServerException("Failed to encrypt auth session", e);
+    }
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(state.array());
+  }
+
+  /** The session is carried by its state, there is nothing to store. */
+  @Override
+  public void put(
+      final String fdAuthServerState, final AuthSession session, final Duration timeToLive) {
+    // state was already sent to the Idp-Sektoral and cannot be replaced
+  }
+
+  @Override
+  public Optional<AuthSession> remove(final String fdAuthServerState) {
+    if (fdAuthServerState.length() > maxStateLength) {
+      return Optional.empty();
+    }
+    final byte[] state;
+    try {
+      state = Base64.getUrlDecoder().decode(fdAuthServerState);
+    } catch (final IllegalArgumentException e) {
+      return Optional.empty();
+    }
+    if (state.length < MIN_STATE_LENGTH || state[0] != VERSION) {
+      return Optional.empty();
+    }
+    final ByteBuffer plaintext;
+    try {
+      final Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+      cipher.init(
+          Cipher.DECRYPT_MODE,
+          symmetricEncryptionKey,
+          new GCMParameterSpec(TAG_LENGTH_BITS, state, 1, IV_LENGTH));
+      cipher.updateAAD(ASSOCIATED_DATA);
+      plaintext =
+          ByteBuffer.wrap(cipher.doFinal(state, 1 + IV_LENGTH, state.length - 1 - IV_LENGTH));
+    } catch (final GeneralSecurityException e) {
+      log.debug("Rejected state that failed decryption: {}", e.getMessage());
+      return Optional.empty();
+    }
+    if (plaintext.getLong() <= clock.millis()) {
+      return Optional.empty();
+    }
+    return AuthSessionCodec.decode(plaintext);
+  }
+
+  /** No sessions are held. */
+  @Override
+  public int size() {
+    return 0;
+  }
+}
@@ -19,14 +19,24 @@ package de.gematik.idp.graserver;
 import static de.gematik.idp.graserver.common.TestConstants.ENTITY_STATEMENT_FED_MASTER;
 import static de.gematik.idp.graserver.common.TestConstants.ENTITY_STMNT_IDP_EXPIRES_IN_YEAR_2043_JWT;
 import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
+import static org.assertj.core.api.AssertionsForClassTypes.assertThatThrownBy;
 import static org.mockserver.model.HttpRequest.request;
 import static org.mockserver.model.HttpResponse.response;
 
 import de.gematik.idp.IdpConstants;
 import de.gematik.idp.graserver.configuration.FdAuthServerConfiguration;
+import de.gematik.idp.graserver.data.IdpMetadata;
+import de.gematik.idp.graserver.exceptions.FdAuthServerException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
 import org.junit.jupiter.api.Test;
 import org.mockserver.client.MockServerClient;
+import org.mockserver.model.Delay;
 import org.mockserver.model.MediaType;
+import org.mockserver.verify.VerificationTimes;
 import org.mockserver.springtest.MockServerTest;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
@@ -40,6 +50,9 @@ import org.springframework.test.annotation.DirtiesContext.ClassMode;
 @MockServerTest("server.url=http://localhost:${mockServerPort}")
 class ServerUrlServiceTest {
 
+  private static final String FETCH_ENDPOINT =
+      "https://app-ref.federationmaster.de/federation/fetch";
+
   @Value("${server.url}")
   private String mockServerUrl;
 
@@ -73,7 +86,53 @@ class ServerUrlServiceTest {
   }
 
   @Test
-    void testDetermineSignedJwksUri() {
-      assert(serverUrlService.determineSignedJwksUri(ENTITY_STMNT_IDP_EXPIRES_IN_YEAR_2043_JWT).orElseThrow()).equals("http://localhost:8085/jws.json");
+  void fetchEndpointIsFetchedOnlyOnceByConcurrentCallers() {
+    mockServerClient
+        .when(request().withMethod("GET").withPath(IdpConstants.ENTITY_STATEMENT_ENDPOINT))
+        .respond(
+            response()
+                .withStatusCode(200)
+                .withContentType(MediaType.APPLICATION_JSON)
+                .withBody(ENTITY_STATEMENT_FED_MASTER)
+                .withDelay(Delay.delay(TimeUnit.MILLISECONDS, 300)));
+    fdAuthServerConfiguration.setFedmasterUrl(mockServerUrl);
+    // the statement of the tests is expired, keep it anyway for the duration of the test
+    fdAuthServerConfiguration.getCache().setFedmasterRefetchMinBackoff(Duration.ofMinutes(1));
+
+    final List<CompletableFuture<String>> callers =
+        IntStream.range(0, 8)
+            .mapToObj(
+                i ->
+                    CompletableFuture.supplyAsync(
+                        serverUrlService::determineFetchEntityStatementEndpoint))
+            .toList();
+    callers.forEach(caller -> assertThat(caller.join()).isEqualTo(FETCH_ENDPOINT));
+    assertThat(serverUrlService.determineFetchEntityStatementEndpoint()).isEqualTo(FETCH_ENDPOINT);
+
+    mockServerClient.verify(
+        request().withPath(IdpConstants.ENTITY_STATEMENT_ENDPOINT), VerificationTimes.exactly(1));
+  }
+
+  @Test
+  void failedFetchOfFetchEndpointBacksOff() {
+    mockServerClient
+        .when(request().withMethod("GET").withPath(IdpConstants.ENTITY_STATEMENT_ENDPOINT))
+        .respond(response().withStatusCode(404));
+    fdAuthServerConfiguration.setFedmasterUrl(mockServerUrl);
+    fdAuthServerConfiguration.getCache().setFedmasterRefetchMinBackoff(Duration.ofMinutes(1));
+
+    assertThatThrownBy(serverUrlService::determineFetchEntityStatementEndpoint)
+        .isInstanceOf(FdAuthServerException.class);
+    assertThatThrownBy(serverUrlService::determineFetchEntityStatementEndpoint)
+        .isInstanceOf(FdAuthServerException.class);
+
+    mockServerClient.verify(
+        request().withPath(IdpConstants.ENTITY_STATEMENT_ENDPOINT), VerificationTimes.exactly(1));
+  }
+
+  @Test
+  void testSignedJwksUriOfIdpMetadata() {
+    assertThat(IdpMetadata.from(ENTITY_STMNT_IDP_EXPIRES_IN_YEAR_2043_JWT).signedJwksUri())
+        .isEqualTo("http://localhost:8085/jws.json");
   }
 }
@@ -0,0 +1,147 @@
+/*
+ *  Copyright 2023 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.idp.graserver.controller;
+
+import static de.gematik.idp.IdpConstants.FED_AUTH_ENDPOINT;
+import static de.gematik.idp.graserver.common.TestConstants.ENTITY_STMNT_IDP_EXPIRES_IN_YEAR_2043;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockserver.model.HttpRequest.request;
+import static org.mockserver.model.HttpResponse.response;
+
+import de.gematik.idp.graserver.data.IdpMetadata;
+import de.gematik.idp.graserver.services.EntityStmntIdpsService;
+import de.gematik.idp.token.JsonWebToken;
+import java.util.concurrent.CompletableFuture;
+import kong.unirest.core.HttpResponse;
+import kong.unirest.core.HttpStatus;
+import kong.unirest.core.Unirest;
+import kong.unirest.core.UnirestInstance;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.mockito.Mockito;
+import org.mockserver.client.MockServerClient;
+import org.mockserver.model.MediaType;
+import org.mockserver.springtest.MockServerTest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.context.ActiveProfiles;
+
+@ActiveProfiles("mock-EntityStmntIdpsService")
+@MockServerTest("sektoral.idp.url=http://localhost:${mockServerPort}")
+@SpringBootTest(
+    webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+    properties = "fd-auth-server.app2AppMode=async")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class AsyncApp2AppControllerTest {
+
+  @LocalServerPort private int localServerPort;
+
+  @Value("${sektoral.idp.url}")
+  private String sekIdpUrl;
+
+  private MockServerClient mockServerClient;
+  @Autowired private EntityStmntIdpsService entityStmntIdpsService;
+  private UnirestInstance unirest;
+
+  @BeforeAll
+  void setup() {
+    unirest = Unirest.spawnInstance();
+    unirest.config().followRedirects(false);
+  }
+
+  @AfterAll
+  void tearDown() {
+    unirest.close();
+  }
+
+  @BeforeEach
+  void mockIdpMetadata() {
+    final JsonWebToken entityStmnt = new JsonWebToken(ENTITY_STMNT_IDP_EXPIRES_IN_YEAR_2043);
+    Mockito.doReturn(
+            CompletableFuture.completedFuture(
+                new IdpMetadata(
+                    entityStmnt,
+                    sekIdpUrl + "/auth",
+                    sekIdpUrl + "/PAR_Auth",
+                    sekIdpUrl + "/token",
+                    null,
+                    0,
+                    Long.MAX_VALUE)))
+        .when(entityStmntIdpsService)
+        .getIdpMetadataAsync(any(), any());
+  }
+
+  @Test
+  void parResponseIsRedirectedToIdpAuthorizationEndpoint() {
+    mockServerClient
+        .when(request().withMethod("POST").withPath("/PAR_Auth"))
+        .respond(
+            response()
+                .withStatusCode(201)
+                .withContentType(MediaType.APPLICATION_JSON)
+                .withBody("{\"request_uri\":\"urn:request:4711\",\"expires_in\":90}"));
+
+    final HttpResponse<String> resp = requestAuthorization();
+
+    assertThat(resp.getStatus()).isEqualTo(HttpStatus.FOUND);
+    assertThat(resp.getHeaders().getFirst(HttpHeaders.LOCATION))
+        .startsWith(sekIdpUrl + "/auth")
+        .contains("request_uri=urn");
+    assertThat(resp.getHeaders().getFirst(HttpHeaders.CACHE_CONTROL)).isEqualTo("no-store");
+  }
+
+  @Test
+  void invalidParResponseIsReportedAsError() {
+    mockServerClient
+        .when(request().withMethod("POST").withPath("/PAR_Auth"))
+        .respond(response().withStatusCode(500).withBody("not json"));
+
+    assertThat(requestAuthorization().getStatus()).isEqualTo(HttpStatus.INTERNAL_SERVER_ERROR);
+  }
+
+  @Test
+  void unknownStateIsRejected() {
+    final HttpResponse<String> resp =
+        unirest
+            .post("http://localhost:" + localServerPort + FED_AUTH_ENDPOINT)
+            .field("code", "authorization-code")
+            .field("state", "unknown")
+            .asString();
+    assertThat(resp.getStatus()).isEqualTo(HttpStatus.BAD_REQUEST);
+  }
+
+  private HttpResponse<String> requestAuthorization() {
+    return unirest
+        .get("http://localhost:" + localServerPort + FED_AUTH_ENDPOINT)
+        .queryString("client_id", "frontend")
+        .queryString("state", "frontend-state")
+        .queryString("redirect_uri", "https://frontend/callback")
+        .queryString("code_challenge", "Ca3Ve8jSsBQOBFVqQvLs1E-dGV1BXg2FTvrd-Tg19Vg")
+        .queryString("code_challenge_method", "S256")
+        .queryString("response_type", "code")
+        .queryString("scope", "openid")
+        .queryString("idp_iss", sekIdpUrl)
+        .asString();
+  }
+}
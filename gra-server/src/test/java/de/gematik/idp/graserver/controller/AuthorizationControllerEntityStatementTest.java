@@ -203,6 +203,44 @@ class AuthorizationControllerEntityStatementTest {
     assertThat(keyList).hasSize(3);
   }
 
+  @Test
+  void signedJwksNotModified() {
+    final HttpResponse<String> response =
+        Unirest.get(testHostUrl + FED_SIGNED_JWKS_ENDPOINT).asString();
+    final String etag = response.getHeaders().getFirst(HttpHeaders.ETAG);
+    assertThat(etag).startsWith("\"");
+
+    final HttpResponse<String> conditionalResponse =
+        Unirest.get(testHostUrl + FED_SIGNED_JWKS_ENDPOINT)
+            .header(HttpHeaders.IF_NONE_MATCH, etag)
+            .asString();
+    assertThat(conditionalResponse.getStatus()).isEqualTo(HttpStatus.NOT_MODIFIED);
+    assertThat(conditionalResponse.getBody()).isEmpty();
+  }
+
+  @Test
+  void entityStatementCacheableUntilExpiry() {
+    final String cacheControl = responseGood.getHeaders().getFirst(HttpHeaders.CACHE_CONTROL);
+    final long maxAge = Long.parseLong(cacheControl.replaceAll(".*max-age=(\\d+).*", "$1"));
+    assertThat(maxAge)
+        .isPositive()
+        .isLessThanOrEqualTo((Long) bodyClaims.get("exp") - (Long) bodyClaims.get("iat"));
+
+    final HttpResponse<String> conditionalResponse =
+        Unirest.get(testHostUrl + IdpConstants.ENTITY_STATEMENT_ENDPOINT)
+            .header(HttpHeaders.IF_NONE_MATCH, responseGood.getHeaders().getFirst(HttpHeaders.ETAG))
+            .asString();
+    assertThat(conditionalResponse.getStatus()).isEqualTo(HttpStatus.NOT_MODIFIED);
+  }
+
+  @Test
+  void expiredEntityStatementNotCacheable() {
+    final HttpResponse<String> response =
+        Unirest.get(testHostUrl + ENTITY_STATEMENT_EXPIRED_ENDPOINT).asString();
+    assertThat(response.getHeaders().getFirst(HttpHeaders.CACHE_CONTROL)).isEqualTo("no-store");
+    assertThat(response.getHeaders().containsKey(HttpHeaders.ETAG)).isFalse();
+  }
+
   @Test
   void headerClaimsOfSignedJwks() {
     final HttpResponse<String> response =
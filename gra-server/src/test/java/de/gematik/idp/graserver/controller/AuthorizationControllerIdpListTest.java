@@ -87,6 +87,20 @@ class AuthorizationControllerIdpListTest {
     assertThat(jwtInResponse).isNotNull();
   }
 
+  @Test
+  void entityListNotModified() {
+    final String etag = responseGood.getHeaders().getFirst(HttpHeaders.ETAG);
+    assertThat(etag).startsWith("\"");
+    assertThat(responseGood.getHeaders().getFirst(HttpHeaders.LAST_MODIFIED)).isNotEmpty();
+
+    final HttpResponse<String> conditionalResponse =
+        Unirest.get(testHostUrl + IdpConstants.IDP_LIST_ENDPOINT)
+            .header(HttpHeaders.IF_NONE_MATCH, etag)
+            .asString();
+    assertThat(conditionalResponse.getStatus()).isEqualTo(HttpStatus.NOT_MODIFIED);
+    assertThat(conditionalResponse.getBody()).isEmpty();
+  }
+
   private HttpResponse<String> retrieveIdpList() {
     return Unirest.get(testHostUrl + IdpConstants.IDP_LIST_ENDPOINT).asString();
   }
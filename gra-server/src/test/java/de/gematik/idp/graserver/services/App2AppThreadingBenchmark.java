@@ -0,0 +1,149 @@
+/*
+ *  Copyright 2023 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.idp.graserver.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import de.gematik.idp.data.ParResponse;
+import de.gematik.idp.graserver.configuration.FdAuthServerConfiguration;
+import de.gematik.idp.graserver.services.SektoralIdpClient.ParRequest;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import javax.net.ssl.SSLContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.env.StandardEnvironment;
+
+/**
+ * Time for a burst of concurrent logins, each waiting for the PAR response (message nr.3) of a slow
+ * Idp-Sektoral. PLATFORM runs the logins on a pool of 200 threads, the default of Tomcat, VIRTUAL
+ * on one virtual thread per login as with spring.threads.virtual.enabled.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 3)
+@Fork(1)
+public class App2AppThreadingBenchmark {
+
+  private static final int LOGINS = 2000;
+  private static final int TOMCAT_MAX_THREADS = 200;
+  private static final String IDP_ISS = "https://idpsek.example";
+  private static final String PAR_RESPONSE =
+      "{\"request_uri\":\"urn:http://127.0.0.1:8085:4434f963244b9f0f\",\"expires_in\":90}";
+
+  @Param({"50", "200", "1000"})
+  private long idpLatencyMillis;
+
+  @Param({"PLATFORM", "VIRTUAL"})
+  private String threads;
+
+  private HttpServer idp;
+  private ExecutorService requestThreads;
+  private OutboundClientRegistry outboundClientRegistry;
+  private SektoralIdpClient sektoralIdpClient;
+  private String sekIdpParEndpoint;
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception {
+    idp = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), LOGINS);
+    idp.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+    idp.createContext(
+        "/PAR_Auth",
+        exchange -> {
+          exchange.getRequestBody().readAllBytes();
+          sleep(idpLatencyMillis);
+          final byte[] body = PAR_RESPONSE.getBytes(StandardCharsets.UTF_8);
+          exchange.getResponseHeaders().add("Content-Type", "application/json");
+          exchange.sendResponseHeaders(201, body.length);
+          try (final OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+          }
+        });
+    idp.start();
+    sekIdpParEndpoint = "http://127.0.0.1:" + idp.getAddress().getPort() + "/PAR_Auth";
+    outboundClientRegistry =
+        new OutboundClientRegistry(
+            FdAuthServerConfiguration.builder().build(),
+            SSLContext.getDefault(),
+            new SimpleMeterRegistry(),
+            new StandardEnvironment());
+    sektoralIdpClient =
+        new SektoralIdpClient(
+            new ObjectMapper(),
+            null,
+            outboundClientRegistry,
+            new IdpCircuitBreakers(FdAuthServerConfiguration.builder().build()));
+    requestThreads =
+        "VIRTUAL".equals(threads)
+            ? Executors.newVirtualThreadPerTaskExecutor()
+            : Executors.newFixedThreadPool(TOMCAT_MAX_THREADS);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    requestThreads.shutdownNow();
+    outboundClientRegistry.close();
+    idp.stop(0);
+  }
+
+  @Benchmark
+  public List<ParResponse> burstOfLogins() throws ExecutionException, InterruptedException {
+    final List<Future<ParResponse>> logins = new ArrayList<>(LOGINS);
+    for (int i = 0; i < LOGINS; i++) {
+      final ParRequest parRequest =
+          new ParRequest("https://gras.example", "state" + i, "challenge", "nonce");
+      logins.add(
+          requestThreads.submit(
+              () -> sektoralIdpClient.sendPar(IDP_ISS, sekIdpParEndpoint, parRequest)));
+    }
+    final List<ParResponse> parResponses = new ArrayList<>(LOGINS);
+    for (final Future<ParResponse> login : logins) {
+      parResponses.add(login.get());
+    }
+    return parResponses;
+  }
+
+  private static void sleep(final long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
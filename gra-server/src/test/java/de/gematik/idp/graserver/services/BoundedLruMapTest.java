@@ -0,0 +1,68 @@
+/*
+ *  Copyright 2023 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.idp.graserver.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class BoundedLruMapTest {
+
+  private final List<String> evicted = new ArrayList<>();
+
+  @Test
+  void leastRecentlyUsedEntryIsEvicted() {
+    final BoundedLruMap<String, String> map = new BoundedLruMap<>(2, value -> true, evicted::add);
+    map.computeIfAbsent("a", key -> "A");
+    map.computeIfAbsent("b", key -> "B");
+    map.get("a");
+
+    assertThat(map.computeIfAbsent("c", key -> "C")).contains("C");
+    assertThat(evicted).containsExactly("B");
+    assertThat(map.values()).containsExactlyInAnyOrder("A", "C");
+  }
+
+  @Test
+  void entryIsNotAddedIfNoneMayBeEvicted() {
+    final BoundedLruMap<String, String> map =
+        new BoundedLruMap<>(2, value -> !value.equals("A"), evicted::add);
+    map.computeIfAbsent("a", key -> "A");
+    assertThat(map.computeIfAbsent("a", key -> "other")).contains("A");
+    map.computeIfAbsent("b", key -> "B");
+
+    assertThat(map.computeIfAbsent("c", key -> "C")).contains("C");
+    assertThat(evicted).containsExactly("B");
+
+    final BoundedLruMap<String, String> pinned =
+        new BoundedLruMap<>(1, value -> false, evicted::add);
+    pinned.computeIfAbsent("a", key -> "A");
+    assertThat(pinned.computeIfAbsent("b", key -> "B")).isEmpty();
+    assertThat(pinned.size()).isEqualTo(1);
+  }
+
+  @Test
+  void clearEvictsEveryEntry() {
+    final BoundedLruMap<String, String> map = new BoundedLruMap<>(2, value -> true, evicted::add);
+    map.computeIfAbsent("a", key -> "A");
+    map.clear();
+
+    assertThat(evicted).containsExactly("A");
+    assertThat(map.get("a")).isEmpty();
+  }
+}
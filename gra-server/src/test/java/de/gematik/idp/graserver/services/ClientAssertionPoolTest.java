@@ -0,0 +1,109 @@
+/*
+ *  Copyright 2023 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.idp.graserver.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.gematik.idp.graserver.configuration.ClientAssertionPoolConfig;
+import de.gematik.idp.graserver.configuration.FdAuthServerConfiguration;
+import de.gematik.idp.token.JsonWebToken;
+import java.security.KeyPair;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+
+class ClientAssertionPoolTest {
+
+  private static final String SERVER_URL = "http://127.0.0.1:8084";
+  private static final String TOKEN_ENDPOINT = "http://127.0.0.1:8082/token";
+
+  private final List<Runnable> backgroundTasks = new ArrayList<>();
+
+  @Test
+  void registeredTokenEndpointIsFilledInBackground() throws Exception {
+    final KeyPair keyPair = JwsSignerTest.p256KeyPair();
+    final ClientAssertionPool pool = clientAssertionPool(keyPair, Duration.ofSeconds(45));
+
+    pool.register(SERVER_URL, TOKEN_ENDPOINT);
+    assertThat(pool.available(SERVER_URL, TOKEN_ENDPOINT)).isZero();
+    runBackgroundTasks();
+    assertThat(pool.available(SERVER_URL, TOKEN_ENDPOINT)).isEqualTo(4);
+
+    final JsonWebToken clientAssertion = new JsonWebToken(pool.take(SERVER_URL, TOKEN_ENDPOINT));
+    clientAssertion.verify(keyPair.getPublic());
+    assertThat(clientAssertion.extractBodyClaims())
+        .containsEntry("iss", SERVER_URL)
+        .containsEntry("aud", TOKEN_ENDPOINT);
+    assertThat(pool.available(SERVER_URL, TOKEN_ENDPOINT)).isEqualTo(3);
+  }
+
+  @Test
+  void clientAssertionsAreHandedOutOnlyOnce() throws Exception {
+    final ClientAssertionPool pool =
+        clientAssertionPool(JwsSignerTest.p256KeyPair(), Duration.ofSeconds(45));
+    pool.register(SERVER_URL, TOKEN_ENDPOINT);
+    runBackgroundTasks();
+
+    // more than the pool holds, the rest is signed during the request
+    final List<Object> jtis =
+        IntStream.range(0, 6)
+            .mapToObj(i -> new JsonWebToken(pool.take(SERVER_URL, TOKEN_ENDPOINT)))
+            .map(clientAssertion -> clientAssertion.extractBodyClaims().get("jti"))
+            .toList();
+
+    assertThat(jtis).doesNotHaveDuplicates().hasSize(6);
+  }
+
+  @Test
+  void clientAssertionsCloseToExpiryAreDiscarded() throws Exception {
+    // longer than the lifetime of 90s: every pre-signed client assertion is outdated at once
+    final ClientAssertionPool pool =
+        clientAssertionPool(JwsSignerTest.p256KeyPair(), Duration.ofSeconds(100));
+    pool.register(SERVER_URL, TOKEN_ENDPOINT);
+    runBackgroundTasks();
+    assertThat(pool.available(SERVER_URL, TOKEN_ENDPOINT)).isEqualTo(4);
+
+    assertThat(pool.take(SERVER_URL, TOKEN_ENDPOINT)).isNotEmpty();
+
+    assertThat(pool.available(SERVER_URL, TOKEN_ENDPOINT)).isZero();
+  }
+
+  private ClientAssertionPool clientAssertionPool(
+      final KeyPair keyPair, final Duration minRemainingLifetime) {
+    return new ClientAssertionPool(
+        new JwsSigner(keyPair.getPrivate(), "puk_fd_sig"),
+        new ObjectMapper(),
+        new ClientAssertionBuilder(
+            new RandomnessService(FdAuthServerConfiguration.builder().build(), Runnable::run)),
+        FdAuthServerConfiguration.builder()
+            .clientAssertionPool(
+                ClientAssertionPoolConfig.builder()
+                    .minRemainingLifetime(minRemainingLifetime)
+                    .build())
+            .build(),
+        backgroundTasks::add);
+  }
+
+  private void runBackgroundTasks() {
+    final List<Runnable> tasks = List.copyOf(backgroundTasks);
+    backgroundTasks.clear();
+    tasks.forEach(Runnable::run);
+  }
+}
@@ -16,10 +16,22 @@
 
 package de.gematik.idp.graserver.services;
 
-import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
+import static de.gematik.idp.graserver.common.TestConstants.ENTITY_STMNT_IDP_EXPIRES_IN_YEAR_2043;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
+import de.gematik.idp.graserver.configuration.FdAuthServerConfiguration;
 import de.gematik.idp.token.JsonWebToken;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import kong.unirest.core.GetRequest;
+import kong.unirest.core.Headers;
+import kong.unirest.core.HttpResponse;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestInstance;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -48,4 +60,56 @@ class EntityListServiceTest {
     final String iss = (String) bodyClaims.get("iss");
     assertThat(iss).containsPattern("http");
   }
+
+  @Test
+  void expiredEntityListIsServedWhileRefreshed() {
+    final GetRequest request = mockFedmasterResponse(200, ENTITY_STMNT_IDP_EXPIRES_IN_YEAR_2043);
+    final List<Runnable> backgroundTasks = new ArrayList<>();
+    final EntityListService service = entityListService(request, backgroundTasks);
+
+    final String expired = service.getEntityList();
+    assertThat(backgroundTasks).isNotEmpty();
+    backgroundTasks.forEach(Runnable::run);
+
+    assertThat(service.getEntityList()).isNotEqualTo(expired);
+    assertThat(service.getEntityList()).isEqualTo(ENTITY_STMNT_IDP_EXPIRES_IN_YEAR_2043);
+    verify(request, times(1)).asString();
+  }
+
+  @Test
+  void failedRefreshIsNotRepeatedImmediately() {
+    final GetRequest request = mockFedmasterResponse(503, "");
+    final List<Runnable> backgroundTasks = new ArrayList<>();
+    final EntityListService service = entityListService(request, backgroundTasks);
+
+    final String expired = service.getEntityList();
+    backgroundTasks.forEach(Runnable::run);
+    backgroundTasks.clear();
+
+    assertThat(service.getEntityList()).isEqualTo(expired);
+    assertThat(backgroundTasks).isEmpty();
+    verify(request, times(1)).asString();
+  }
+
+  private static EntityListService entityListService(
+      final GetRequest request, final List<Runnable> backgroundTasks) {
+    final OutboundClientRegistry outboundClientRegistry = mock(OutboundClientRegistry.class);
+    when(outboundClientRegistry.get(anyString())).thenReturn(request);
+    return new EntityListService(
+        FdAuthServerConfiguration.builder().fedmasterUrl("http://127.0.0.1:8083").build(),
+        outboundClientRegistry,
+        backgroundTasks::add);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static GetRequest mockFedmasterResponse(final int status, final String body) {
+    final HttpResponse<String> response = mock(HttpResponse.class);
+    when(response.getStatus()).thenReturn(status);
+    when(response.isSuccess()).thenReturn(status < 300);
+    when(response.getHeaders()).thenReturn(new Headers());
+    when(response.getBody()).thenReturn(body);
+    final GetRequest request = mock(GetRequest.class);
+    when(request.asString()).thenReturn(response);
+    return request;
+  }
 }
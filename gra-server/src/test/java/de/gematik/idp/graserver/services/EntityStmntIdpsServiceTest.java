@@ -19,15 +19,16 @@ package de.gematik.idp.graserver.services;
 import static de.gematik.idp.graserver.common.TestConstants.*;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
-import static org.mockito.ArgumentMatchers.any;
 import static org.mockserver.model.HttpRequest.request;
 import static org.mockserver.model.HttpResponse.response;
 
 import de.gematik.idp.IdpConstants;
 import de.gematik.idp.graserver.ServerUrlService;
 import de.gematik.idp.graserver.configuration.FdAuthServerConfiguration;
+import de.gematik.idp.graserver.data.IdpMetadata;
 import de.gematik.idp.graserver.exceptions.FdAuthServerException;
 import de.gematik.idp.token.JsonWebToken;
+import java.security.PublicKey;
 import lombok.extern.slf4j.Slf4j;
 import org.jose4j.jwk.JsonWebKeySet;
 import org.junit.jupiter.api.BeforeEach;
@@ -36,6 +37,7 @@ import org.junit.jupiter.api.TestInstance;
 import org.mockito.Mockito;
 import org.mockserver.client.MockServerClient;
 import org.mockserver.model.MediaType;
+import org.mockserver.verify.VerificationTimes;
 import org.mockserver.springtest.MockServerTest;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
@@ -43,8 +45,6 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
 import org.springframework.test.context.ActiveProfiles;
 
-import java.util.Optional;
-
 @ActiveProfiles("mock-serverUrlService")
 @Slf4j
 @MockServerTest("server.url=http://localhost:${mockServerPort}")
@@ -156,6 +156,45 @@ class EntityStmntIdpsServiceTest {
         .isEqualTo(ENTITY_STMNT_IDP_EXPIRES_IN_YEAR_2043);
   }
 
+  @Test
+  void refreshEntityStatementsAhead() {
+    entityStmntIdpsService.putEntityStatementIdp(
+        mockServerUrl, ENTITY_STMNT_IDP_EXPIRES_IN_YEAR_2043_JWT);
+    Mockito.doReturn(mockServerUrl + "/federation/fetch")
+        .when(serverUrlService)
+        .determineFetchEntityStatementEndpoint();
+    mockServerClient
+        .when(request().withMethod("GET").withPath(IdpConstants.ENTITY_STATEMENT_ENDPOINT))
+        .respond(
+            response()
+                .withStatusCode(200)
+                .withContentType(MediaType.APPLICATION_JSON)
+                .withBody(ENTITY_STMNT_IDP_EXPIRES_IN_YEAR_2043));
+    mockServerClient
+        .when(request().withMethod("GET").withPath("/federation/fetch"))
+        .respond(
+            response()
+                .withStatusCode(200)
+                .withContentType(MediaType.APPLICATION_JSON)
+                .withBody(ENTITY_STMNT_ABOUT_IDP_EXPIRES_IN_YEAR_2043));
+    fdAuthServerConfiguration.setFedmasterUrl(mockServerUrl);
+
+    // statements valid until 2043 are not refreshed
+    entityStmntIdpsService.refreshEntityStatementsAhead();
+    mockServerClient.verifyZeroInteractions();
+
+    fdAuthServerConfiguration.getCache().setEntityStatementRefreshFraction(0);
+    try {
+      entityStmntIdpsService.refreshEntityStatementsAhead();
+    } finally {
+      fdAuthServerConfiguration.getCache().setEntityStatementRefreshFraction(0.75);
+    }
+    mockServerClient.verify(
+        request().withPath(IdpConstants.ENTITY_STATEMENT_ENDPOINT), VerificationTimes.once());
+    // the refreshed statement is verified with the statement about the Idp-Sektoral
+    mockServerClient.verify(request().withPath("/federation/fetch"), VerificationTimes.once());
+  }
+
   @Test
   void fetchEntityStatementIdp_answerNot200() {
     assertThatThrownBy(() -> entityStmntIdpsService.getEntityStatementIdp(mockServerUrl))
@@ -200,17 +239,22 @@ class EntityStmntIdpsServiceTest {
                 .withStatusCode(200)
                 .withContentType(MediaType.APPLICATION_JSON)
                 .withBody(ENTITY_STMNT_ABOUT_IDP_EXPIRES_IN_YEAR_2043));
-    assertThat(
-            entityStmntIdpsService.getAuthorizationEndpoint(
-                entityStmntIdpsService.getEntityStatementIdp(mockServerUrl)))
+    assertThat(entityStmntIdpsService.getIdpMetadata(mockServerUrl).authorizationEndpoint())
         .isEqualTo(expectedAuthorizationEndpoint);
   }
 
   @Test
-  void getTokenEndpoint() {
-    final String expectedTokenEndpoint = "http://localhost:8085/token";
-    assertThat(entityStmntIdpsService.getTokenEndpoint(ENTITY_STMNT_IDP_EXPIRES_IN_YEAR_2043_JWT))
-        .isEqualTo(expectedTokenEndpoint);
+  void idpMetadataHoldsEndpointsOfEntityStatement() {
+    entityStmntIdpsService.putEntityStatementIdp(
+        mockServerUrl, ENTITY_STMNT_IDP_EXPIRES_IN_YEAR_2043_JWT);
+    final IdpMetadata idpMetadata = entityStmntIdpsService.getIdpMetadata(mockServerUrl);
+    assertThat(idpMetadata.authorizationEndpoint()).isEqualTo("http://localhost:8085/auth");
+    assertThat(idpMetadata.pushedAuthorizationRequestEndpoint())
+        .isEqualTo("http://localhost:8085/PAR_Auth");
+    assertThat(idpMetadata.tokenEndpoint()).isEqualTo("http://localhost:8085/token");
+    assertThat(idpMetadata.signedJwksUri()).isEqualTo("http://localhost:8085/jws.json");
+    assertThat(idpMetadata.exp()).isEqualTo(2333201979L);
+    assertThat(entityStmntIdpsService.getIdpMetadata(mockServerUrl)).isSameAs(idpMetadata);
   }
 
   @Test
@@ -220,9 +264,7 @@ class EntityStmntIdpsServiceTest {
               .when(serverUrlService)
               .determineFetchEntityStatementEndpoint();
 
-      Mockito.doReturn(Optional.of(mockServerUrl + "/jws.json"))
-              .when(serverUrlService)
-              .determineSignedJwksUri(any());
+      putIdpMetadataWithSignedJwksAtMockServer();
       mockServerClient
               .when(request().withMethod("GET").withPath(IdpConstants.ENTITY_STATEMENT_ENDPOINT))
               .respond(
@@ -250,4 +292,98 @@ class EntityStmntIdpsServiceTest {
       assertThat(jwks.findJsonWebKey("puk_idp_sig","EC", "sig", "ES256")).isNotNull();
 
   }
+
+  @Test
+  void signedJwksIdpIsCached() {
+    mockSignedJwksIdp();
+    assertThat(entityStmntIdpsService.getIdTokenSigKey(mockServerUrl, "puk_fed_idp_token"))
+        .isSameAs(entityStmntIdpsService.getIdTokenSigKey(mockServerUrl, "puk_fed_idp_token"));
+    mockServerClient.verify(request().withPath("/jws.json"), VerificationTimes.once());
+  }
+
+  @Test
+  void unknownKidRefetchesSignedJwksIdpRateLimited() {
+    mockSignedJwksIdp();
+    assertThatThrownBy(() -> entityStmntIdpsService.getIdTokenSigKey(mockServerUrl, "unknown_kid"))
+        .isInstanceOf(FdAuthServerException.class);
+    assertThatThrownBy(
+            () -> entityStmntIdpsService.getIdTokenSigKey(mockServerUrl, "other_unknown_kid"))
+        .isInstanceOf(FdAuthServerException.class);
+    // initial fetch plus one refetch for the first unknown kid
+    mockServerClient.verify(request().withPath("/jws.json"), VerificationTimes.exactly(2));
+  }
+
+  @Test
+  void unchangedSignedJwksIdpIsRevalidated() {
+    putIdpMetadataWithSignedJwksAtMockServer();
+    mockServerClient
+        .when(
+            request()
+                .withMethod("GET")
+                .withPath("/jws.json")
+                .withHeader("If-None-Match", "\"v1\""))
+        .respond(response().withStatusCode(304));
+    mockServerClient
+        .when(request().withMethod("GET").withPath("/jws.json"))
+        .respond(
+            response()
+                .withStatusCode(200)
+                .withHeader("ETag", "\"v1\"")
+                .withContentType(MediaType.APPLICATION_JSON)
+                .withBody(SIGNED_JWKS_IDP));
+
+    final PublicKey idTokenSigKey =
+        entityStmntIdpsService.getIdTokenSigKey(mockServerUrl, "puk_fed_idp_token");
+    // unknown kid: the signed JWKS is fetched again, the Idp-Sektoral answers 304
+    assertThatThrownBy(() -> entityStmntIdpsService.getIdTokenSigKey(mockServerUrl, "unknown_kid"))
+        .isInstanceOf(FdAuthServerException.class);
+
+    assertThat(entityStmntIdpsService.getIdTokenSigKey(mockServerUrl, "puk_fed_idp_token"))
+        .isSameAs(idTokenSigKey);
+    mockServerClient.verify(
+        request().withPath("/jws.json").withHeader("If-None-Match", "\"v1\""),
+        VerificationTimes.once());
+  }
+
+  private void mockSignedJwksIdp() {
+    Mockito.doReturn(mockServerUrl + "/federation/fetch")
+        .when(serverUrlService)
+        .determineFetchEntityStatementEndpoint();
+    putIdpMetadataWithSignedJwksAtMockServer();
+    mockServerClient
+        .when(request().withMethod("GET").withPath(IdpConstants.ENTITY_STATEMENT_ENDPOINT))
+        .respond(
+            response()
+                .withStatusCode(200)
+                .withContentType(MediaType.APPLICATION_JSON)
+                .withBody(ENTITY_STMNT_IDP_EXPIRES_IN_YEAR_2043));
+    mockServerClient
+        .when(request().withMethod("GET").withPath("/federation/fetch"))
+        .respond(
+            response()
+                .withStatusCode(200)
+                .withContentType(MediaType.APPLICATION_JSON)
+                .withBody(ENTITY_STMNT_ABOUT_IDP_EXPIRES_IN_YEAR_2043));
+    mockServerClient
+        .when(request().withMethod("GET").withPath("/jws.json"))
+        .respond(
+            response()
+                .withStatusCode(200)
+                .withContentType(MediaType.APPLICATION_JSON)
+                .withBody(SIGNED_JWKS_IDP));
+  }
+
+  private void putIdpMetadataWithSignedJwksAtMockServer() {
+    final IdpMetadata idpMetadata = IdpMetadata.from(ENTITY_STMNT_IDP_EXPIRES_IN_YEAR_2043_JWT);
+    entityStmntIdpsService.putIdpMetadata(
+        mockServerUrl,
+        new IdpMetadata(
+            idpMetadata.entityStatement(),
+            idpMetadata.authorizationEndpoint(),
+            idpMetadata.pushedAuthorizationRequestEndpoint(),
+            idpMetadata.tokenEndpoint(),
+            mockServerUrl + "/jws.json",
+            idpMetadata.iat(),
+            idpMetadata.exp()));
+  }
 }
@@ -0,0 +1,173 @@
+/*
+ *  Copyright 2023 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.idp.graserver.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import de.gematik.idp.graserver.configuration.CircuitBreakerConfig;
+import de.gematik.idp.graserver.configuration.FdAuthServerConfiguration;
+import de.gematik.idp.graserver.exceptions.FdAuthServerException;
+import de.gematik.idp.graserver.services.IdpCircuitBreakers.State;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import kong.unirest.core.HttpResponse;
+import kong.unirest.core.UnirestException;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+
+class IdpCircuitBreakersTest {
+
+  private static final String IDP_ISS = "https://idpsek.example";
+  private static final String OTHER_IDP_ISS = "https://other-idpsek.example";
+  private static final int MAX_ISSUERS = 3;
+
+  private final AtomicInteger requests = new AtomicInteger();
+
+  @Test
+  void circuitOpensAfterConsecutiveFailures() {
+    final IdpCircuitBreakers idpCircuitBreakers = circuitBreakers(Duration.ofMinutes(1));
+    failTwice(idpCircuitBreakers);
+
+    assertThat(idpCircuitBreakers.getState(IDP_ISS)).isEqualTo(State.OPEN);
+    assertThatThrownBy(() -> idpCircuitBreakers.call(IDP_ISS, () -> response(200)))
+        .isInstanceOfSatisfying(
+            FdAuthServerException.class,
+            e -> assertThat(e.getStatusCode()).isEqualTo(HttpStatus.SERVICE_UNAVAILABLE));
+    assertThatThrownBy(() -> idpCircuitBreakers.rejectIfOpen(IDP_ISS))
+        .isInstanceOf(FdAuthServerException.class);
+    assertThat(requests).hasValue(2);
+  }
+
+  @Test
+  void otherIdpIsNotAffected() {
+    final IdpCircuitBreakers idpCircuitBreakers = circuitBreakers(Duration.ofMinutes(1));
+    failTwice(idpCircuitBreakers);
+
+    assertThat(idpCircuitBreakers.call(OTHER_IDP_ISS, () -> response(200)).getStatus())
+        .isEqualTo(200);
+    idpCircuitBreakers.rejectIfOpen(OTHER_IDP_ISS);
+  }
+
+  @Test
+  void clientErrorsAndSuccessesKeepCircuitClosed() {
+    final IdpCircuitBreakers idpCircuitBreakers = circuitBreakers(Duration.ofMinutes(1));
+    idpCircuitBreakers.call(IDP_ISS, () -> response(500));
+    idpCircuitBreakers.call(IDP_ISS, () -> response(400));
+    idpCircuitBreakers.call(IDP_ISS, () -> response(500));
+
+    assertThat(idpCircuitBreakers.getState(IDP_ISS)).isEqualTo(State.CLOSED);
+  }
+
+  @Test
+  void successfulProbeClosesCircuit() {
+    final IdpCircuitBreakers idpCircuitBreakers = circuitBreakers(Duration.ZERO);
+    failTwice(idpCircuitBreakers);
+
+    idpCircuitBreakers.call(
+        IDP_ISS,
+        () -> {
+          // only the probe is let through while the circuit is half-open
+          assertThat(idpCircuitBreakers.getState(IDP_ISS)).isEqualTo(State.HALF_OPEN);
+          assertThatThrownBy(() -> idpCircuitBreakers.call(IDP_ISS, () -> response(200)))
+              .isInstanceOf(FdAuthServerException.class);
+          return response(200);
+        });
+
+    assertThat(idpCircuitBreakers.getState(IDP_ISS)).isEqualTo(State.CLOSED);
+  }
+
+  @Test
+  void failedProbeOpensCircuitAgain() {
+    final IdpCircuitBreakers idpCircuitBreakers = circuitBreakers(Duration.ZERO);
+    failTwice(idpCircuitBreakers);
+
+    idpCircuitBreakers.call(IDP_ISS, () -> response(503));
+
+    assertThat(idpCircuitBreakers.getState(IDP_ISS)).isEqualTo(State.OPEN);
+  }
+
+  @Test
+  void failedAsyncRequestsOpenCircuit() {
+    final IdpCircuitBreakers idpCircuitBreakers = circuitBreakers(Duration.ofMinutes(1));
+    for (int i = 0; i < 2; i++) {
+      assertThat(
+              idpCircuitBreakers.callAsync(
+                  IDP_ISS,
+                  () ->
+                      CompletableFuture.<HttpResponse<String>>failedFuture(
+                          new UnirestException("connect timed out"))))
+          .isCompletedExceptionally();
+    }
+
+    assertThat(
+            idpCircuitBreakers.callAsync(
+                IDP_ISS, () -> CompletableFuture.completedFuture(response(200))))
+        .isCompletedExceptionally();
+    assertThat(requests).hasValue(0);
+  }
+
+  @Test
+  void openCircuitIsKeptWhileUnknownIssuersComeAndGo() {
+    final IdpCircuitBreakers idpCircuitBreakers = circuitBreakers(Duration.ofMinutes(1));
+    failTwice(idpCircuitBreakers);
+
+    for (int i = 0; i < 10; i++) {
+      idpCircuitBreakers.call("https://unknown-idp" + i + ".example", () -> response(500));
+    }
+
+    assertThat(idpCircuitBreakers.circuitCount()).isEqualTo(MAX_ISSUERS);
+    assertThat(idpCircuitBreakers.getState(IDP_ISS)).isEqualTo(State.OPEN);
+  }
+
+  private IdpCircuitBreakers circuitBreakers(final Duration openDuration) {
+    return new IdpCircuitBreakers(
+        FdAuthServerConfiguration.builder()
+            .circuitBreaker(
+                CircuitBreakerConfig.builder()
+                    .failureThreshold(2)
+                    .openDuration(openDuration)
+                    .maxIssuers(MAX_ISSUERS)
+                    .build())
+            .build());
+  }
+
+  private void failTwice(final IdpCircuitBreakers idpCircuitBreakers) {
+    for (int i = 0; i < 2; i++) {
+      assertThatThrownBy(
+              () ->
+                  idpCircuitBreakers.call(
+                      IDP_ISS,
+                      () -> {
+                        requests.incrementAndGet();
+                        throw new UnirestException("connect timed out");
+                      }))
+          .isInstanceOf(UnirestException.class);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private HttpResponse<String> response(final int status) {
+    requests.incrementAndGet();
+    final HttpResponse<String> response = mock(HttpResponse.class);
+    when(response.getStatus()).thenReturn(status);
+    return response;
+  }
+}
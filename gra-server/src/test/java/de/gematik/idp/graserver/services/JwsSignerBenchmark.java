@@ -0,0 +1,90 @@
+/*
+ *  Copyright 2023 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.idp.graserver.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.gematik.idp.authentication.IdpJwtProcessor;
+import de.gematik.idp.crypto.KeyUtility;
+import de.gematik.idp.data.JwtHelper;
+import de.gematik.idp.file.ResourceReader;
+import java.security.PrivateKey;
+import java.security.Security;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to sign a client assertion (message nr.2) with ES256, once through {@link JwtHelper} and a
+ * new jose4j JsonWebSignature per token, once through the pooled {@link JwsSigner}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class JwsSignerBenchmark {
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+  private IdpJwtProcessor idpJwtProcessor;
+  private JwsSigner jwsSigner;
+  private Map<String, Object> clientAssertion;
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception {
+    // provider and key as in GraServer and KeyConfiguration, IdpJwtProcessor needs BouncyCastle
+    // keys
+    Security.removeProvider(BouncyCastleProvider.PROVIDER_NAME);
+    Security.insertProviderAt(new BouncyCastleProvider(), 1);
+    final PrivateKey esSigPrivKey =
+        KeyUtility.readX509PrivateKeyPlain(
+            ResourceReader.getFileFromResourceAsTmpFile("keys/ref-privkey.pem"));
+    idpJwtProcessor = new IdpJwtProcessor(esSigPrivKey, "puk_fd_sig");
+    jwsSigner = new JwsSigner(esSigPrivKey, "puk_fd_sig");
+    clientAssertion =
+        Map.of(
+            "iss", "https://gras.example",
+            "sub", "https://gras.example",
+            "aud", "https://idpsek.example/token",
+            "jti", "4434f963244b9f0f4434f963244b9f0f",
+            "iat", 1700000000L,
+            "exp", 1700000060L);
+  }
+
+  @Benchmark
+  public String jwtHelper() {
+    return JwtHelper.signJson(idpJwtProcessor, objectMapper, clientAssertion, "JWT");
+  }
+
+  @Benchmark
+  public String jwsSigner() {
+    return jwsSigner.signJson(objectMapper, clientAssertion, "JWT");
+  }
+}
@@ -0,0 +1,81 @@
+/*
+ *  Copyright 2023 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.idp.graserver.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.gematik.idp.token.JsonWebToken;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Map;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+
+class JwsSignerTest {
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+
+  @Test
+  void es256JwsIsVerifiable() throws Exception {
+    final KeyPair keyPair = p256KeyPair();
+    final JwsSigner jwsSigner = new JwsSigner(keyPair.getPrivate(), "puk_fd_sig");
+
+    final JsonWebToken jws =
+        new JsonWebToken(jwsSigner.signJson(objectMapper, Map.of("iss", "gras"), "JWT"));
+
+    jws.verify(keyPair.getPublic());
+    assertThat(jws.extractHeaderClaims())
+        .containsEntry("alg", "ES256")
+        .containsEntry("typ", "JWT")
+        .containsEntry("kid", "puk_fd_sig");
+    assertThat(jws.extractBodyClaims()).containsEntry("iss", "gras");
+  }
+
+  @Test
+  void signaturesAreReusedConcurrently() throws Exception {
+    final KeyPair keyPair = p256KeyPair();
+    final JwsSigner jwsSigner = new JwsSigner(keyPair.getPrivate(), "puk_fd_sig");
+
+    IntStream.range(0, 200)
+        .parallel()
+        .mapToObj(i -> jwsSigner.signJson(objectMapper, Map.of("nr", i), "jwk-set+json"))
+        .map(JsonWebToken::new)
+        .forEach(jws -> jws.verify(keyPair.getPublic()));
+  }
+
+  @Test
+  void otherKeysAreSignedByIdpJwtProcessor() throws Exception {
+    final KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+    keyPairGenerator.initialize(2048);
+    final KeyPair keyPair = keyPairGenerator.generateKeyPair();
+    final JwsSigner jwsSigner = new JwsSigner(keyPair.getPrivate(), "puk_fd_sig");
+
+    final JsonWebToken jws =
+        new JsonWebToken(jwsSigner.signJson(objectMapper, Map.of("iss", "gras"), "JWT"));
+
+    jws.verify(keyPair.getPublic());
+    assertThat(jws.extractHeaderClaims()).containsEntry("alg", "PS256");
+  }
+
+  static KeyPair p256KeyPair() throws Exception {
+    final KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("EC");
+    keyPairGenerator.initialize(new ECGenParameterSpec("secp256r1"));
+    return keyPairGenerator.generateKeyPair();
+  }
+}
@@ -0,0 +1,162 @@
+/*
+ *  Copyright 2023 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.idp.graserver.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.sun.net.httpserver.HttpServer;
+import de.gematik.idp.graserver.configuration.FdAuthServerConfiguration;
+import de.gematik.idp.graserver.configuration.OutboundConfig;
+import de.gematik.idp.graserver.exceptions.FdAuthServerException;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.net.InetSocketAddress;
+import javax.net.ssl.SSLContext;
+import kong.unirest.core.GetRequest;
+import kong.unirest.core.UnirestInstance;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.env.StandardEnvironment;
+
+class OutboundClientRegistryTest {
+
+  private static final int MAX_DESTINATIONS = 3;
+
+  private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private OutboundClientRegistry outboundClientRegistry;
+  private HttpServer destination;
+
+  @BeforeEach
+  void setup() throws Exception {
+    outboundClientRegistry =
+        new OutboundClientRegistry(
+            FdAuthServerConfiguration.builder()
+                .outbound(OutboundConfig.builder().maxDestinations(MAX_DESTINATIONS).build())
+                .build(),
+            SSLContext.getDefault(),
+            meterRegistry,
+            new StandardEnvironment());
+    destination = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    destination.createContext(
+        "/.well-known/openid-federation",
+        exchange -> {
+          exchange.sendResponseHeaders(200, -1);
+          exchange.close();
+        });
+    destination.start();
+  }
+
+  @AfterEach
+  void tearDown() {
+    outboundClientRegistry.close();
+    destination.stop(0);
+  }
+
+  @Test
+  void sameDestinationSharesClient() {
+    assertThat(outboundClientRegistry.client("https://idp.example/PAR_Auth"))
+        .isSameAs(outboundClientRegistry.client("https://IDP.example:443/token"));
+  }
+
+  @Test
+  void eachDestinationHasOwnClient() {
+    assertThat(outboundClientRegistry.client("https://idp.example/PAR_Auth"))
+        .isNotSameAs(outboundClientRegistry.client("https://other-idp.example/PAR_Auth"))
+        .isNotSameAs(outboundClientRegistry.client("http://idp.example/PAR_Auth"));
+  }
+
+  @Test
+  void invalidUrlIsRejected() {
+    assertThatThrownBy(() -> outboundClientRegistry.client("/PAR_Auth"))
+        .isInstanceOf(FdAuthServerException.class);
+  }
+
+  @Test
+  void requestsAreTimedPerDestination() {
+    final String url =
+        "http://127.0.0.1:" + destination.getAddress().getPort() + "/.well-known/openid-federation";
+    assertThat(outboundClientRegistry.get(url).asString().getStatus()).isEqualTo(200);
+
+    assertThat(
+            meterRegistry
+                .get("gras.outbound.requests")
+                .tag("destination", OutboundClientRegistry.destinationOf(url))
+                .tag("method", "GET")
+                .tag("status", "200")
+                .timer()
+                .count())
+        .isEqualTo(1);
+    assertThat(
+            meterRegistry
+                .get("gras.outbound.in.flight")
+                .tag("destination", OutboundClientRegistry.destinationOf(url))
+                .gauge()
+                .value())
+        .isZero();
+  }
+
+  @Test
+  void leastRecentlyUsedDestinationIsClosedBeyondMaxDestinations() {
+    final UnirestInstance first = outboundClientRegistry.client("https://idp0.example/");
+    for (int i = 1; i < MAX_DESTINATIONS; i++) {
+      outboundClientRegistry.client("https://idp" + i + ".example/");
+    }
+    // first destination used most recently, the second one is closed instead
+    assertThat(outboundClientRegistry.client("https://idp0.example/")).isSameAs(first);
+    outboundClientRegistry.client("https://idp" + MAX_DESTINATIONS + ".example/");
+
+    assertThat(outboundClientRegistry.client("https://idp0.example/")).isSameAs(first);
+    assertThat(
+            meterRegistry
+                .find("gras.outbound.in.flight")
+                .tag("destination", "https://idp1.example:443")
+                .gauge())
+        .isNull();
+    assertThat(
+            meterRegistry
+                .find("gras.outbound.in.flight")
+                .tag("destination", "https://idp" + MAX_DESTINATIONS + ".example:443")
+                .gauge())
+        .isNotNull();
+  }
+
+  @Test
+  void clientOfRequestNotExecutedYetIsNotClosed() {
+    final String url =
+        "http://127.0.0.1:" + destination.getAddress().getPort() + "/.well-known/openid-federation";
+    final String leasedDestination = OutboundClientRegistry.destinationOf(url);
+    final GetRequest handedOut = outboundClientRegistry.get(url);
+    for (int i = 1; i <= MAX_DESTINATIONS; i++) {
+      outboundClientRegistry.client("https://idp" + i + ".example/");
+    }
+
+    // the least recently used destination is leased, the next one is closed instead
+    assertThat(inFlightGauge(leasedDestination)).isNotNull();
+    assertThat(inFlightGauge("https://idp1.example:443")).isNull();
+    assertThat(handedOut.asString().getStatus()).isEqualTo(200);
+
+    outboundClientRegistry.client("https://idp" + (MAX_DESTINATIONS + 1) + ".example/");
+    assertThat(inFlightGauge(leasedDestination)).isNull();
+  }
+
+  private Gauge inFlightGauge(final String destination) {
+    return meterRegistry.find("gras.outbound.in.flight").tag("destination", destination).gauge();
+  }
+}
@@ -0,0 +1,57 @@
+/*
+ *  Copyright 2023 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.idp.graserver.services;
+
+import static de.gematik.idp.graserver.common.TestConstants.SIGNED_JWKS_IDP;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import de.gematik.idp.token.JsonWebToken;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.jose4j.jwk.JsonWebKeySet;
+import org.jose4j.lang.JoseException;
+import org.junit.jupiter.api.Test;
+
+class PublicKeyIndexTest {
+
+  private final AtomicInteger extractions = new AtomicInteger();
+  private final PublicKeyIndex<String> publicKeyIndex =
+      new PublicKeyIndex<>(
+          signedJwks -> {
+            extractions.incrementAndGet();
+            try {
+              return new JsonWebKeySet(new JsonWebToken(signedJwks).getPayloadDecoded());
+            } catch (final JoseException e) {
+              throw new IllegalArgumentException(e);
+            }
+          });
+
+  @Test
+  void keysAreExtractedOncePerSource() {
+    assertThat(publicKeyIndex.find("iss", SIGNED_JWKS_IDP, "puk_fed_idp_token")).isPresent();
+    assertThat(publicKeyIndex.find("iss", SIGNED_JWKS_IDP, "puk_idp_sig")).isPresent();
+    assertThat(publicKeyIndex.find("iss", SIGNED_JWKS_IDP, "unknown")).isEmpty();
+    assertThat(extractions).hasValue(1);
+  }
+
+  @Test
+  void replacedSourceIsExtractedAgain() {
+    publicKeyIndex.index("iss", SIGNED_JWKS_IDP);
+    final String replacedSource = new String(SIGNED_JWKS_IDP);
+    assertThat(publicKeyIndex.find("iss", replacedSource, "puk_fed_idp_token")).isPresent();
+    assertThat(extractions).hasValue(2);
+  }
+}
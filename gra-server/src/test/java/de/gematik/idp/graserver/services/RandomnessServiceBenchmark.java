@@ -0,0 +1,109 @@
+/*
+ *  Copyright 2023 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.idp.graserver.services;
+
+import static de.gematik.idp.graserver.Constants.FD_AUTH_SERVER_NONCE_LENGTH;
+import static de.gematik.idp.graserver.Constants.FD_AUTH_SERVER_STATE_LENGTH;
+
+import de.gematik.idp.crypto.Nonce;
+import de.gematik.idp.field.ClientUtilities;
+import de.gematik.idp.graserver.configuration.FdAuthServerConfiguration;
+import de.gematik.idp.graserver.services.RandomnessService.SessionSecrets;
+import java.security.SecureRandom;
+import java.security.Security;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Random values under contention of 64 threads: a nonce from one shared SecureRandom against one
+ * from the striped DRBGs of {@link RandomnessService}, and the secrets of message nr.1 generated
+ * during the request against those generated ahead.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(64)
+public class RandomnessServiceBenchmark {
+
+  private static final int JTI_LENGTH = 32;
+
+  private SecureRandom sharedSecureRandom;
+  private ExecutorService refillExecutor;
+  private RandomnessService randomnessService;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    // provider as in GraServer, the default SecureRandom then comes from BouncyCastle
+    Security.removeProvider(BouncyCastleProvider.PROVIDER_NAME);
+    Security.insertProviderAt(new BouncyCastleProvider(), 1);
+    sharedSecureRandom = new SecureRandom();
+    refillExecutor = Executors.newSingleThreadExecutor();
+    randomnessService =
+        new RandomnessService(FdAuthServerConfiguration.builder().build(), refillExecutor);
+    randomnessService.refillSessionSecrets();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    refillExecutor.shutdownNow();
+  }
+
+  @Benchmark
+  public byte[] sharedSecureRandom() {
+    final byte[] bytes = new byte[JTI_LENGTH / 2];
+    sharedSecureRandom.nextBytes(bytes);
+    return bytes;
+  }
+
+  @Benchmark
+  public byte[] stripedDrbg() {
+    return randomnessService.randomBytes(JTI_LENGTH / 2);
+  }
+
+  @Benchmark
+  public SessionSecrets sessionSecretsDuringRequest() {
+    final String codeVerifier = ClientUtilities.generateCodeVerifier();
+    return new SessionSecrets(
+        Nonce.getNonceAsHex(FD_AUTH_SERVER_STATE_LENGTH),
+        Nonce.getNonceAsHex(FD_AUTH_SERVER_NONCE_LENGTH),
+        codeVerifier,
+        ClientUtilities.generateCodeChallenge(codeVerifier));
+  }
+
+  @Benchmark
+  public SessionSecrets sessionSecretsGeneratedAhead() {
+    return randomnessService.takeSessionSecrets();
+  }
+}
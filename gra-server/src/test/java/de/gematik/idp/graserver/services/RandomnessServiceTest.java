@@ -0,0 +1,91 @@
+/*
+ *  Copyright 2023 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.idp.graserver.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import de.gematik.idp.field.ClientUtilities;
+import de.gematik.idp.graserver.configuration.FdAuthServerConfiguration;
+import de.gematik.idp.graserver.configuration.RandomnessConfig;
+import de.gematik.idp.graserver.services.RandomnessService.SessionSecrets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+
+class RandomnessServiceTest {
+
+  private final List<Runnable> backgroundTasks = new ArrayList<>();
+
+  @Test
+  void noncesHaveTheRequestedLength() {
+    final RandomnessService randomnessService = randomnessService(0);
+
+    assertThat(randomnessService.randomBytes(12)).hasSize(12);
+    assertThat(randomnessService.nonceAsHex(32)).hasSize(32).matches("[0-9a-f]+");
+    assertThat(randomnessService.nonceAsHex(7)).hasSize(7);
+    // 24 bytes base64url encoded without padding
+    assertThat(randomnessService.nonceAsBase64Url(24)).hasSize(32).matches("[A-Za-z0-9_-]+");
+  }
+
+  @Test
+  void codeChallengeBelongsToCodeVerifier() {
+    final SessionSecrets secrets = randomnessService(0).takeSessionSecrets();
+
+    assertThat(secrets.fdAuthServerCodeChallenge())
+        .isEqualTo(ClientUtilities.generateCodeChallenge(secrets.fdAuthServerCodeVerifier()));
+    assertThat(secrets.fdAuthServerCodeVerifier()).hasSize(43);
+  }
+
+  @Test
+  void sessionSecretsAreRefilledInBackgroundAndHandedOutOnlyOnce() {
+    final RandomnessService randomnessService = randomnessService(4);
+    randomnessService.refillSessionSecrets();
+    assertThat(randomnessService.availableSessionSecrets()).isEqualTo(4);
+
+    // more than the queue holds, the rest is generated during the request
+    final List<String> states =
+        IntStream.range(0, 6)
+            .mapToObj(i -> randomnessService.takeSessionSecrets().fdAuthServerState())
+            .toList();
+    assertThat(states).doesNotHaveDuplicates();
+    assertThat(randomnessService.availableSessionSecrets()).isZero();
+    assertThat(backgroundTasks).hasSize(1);
+
+    backgroundTasks.forEach(Runnable::run);
+    assertThat(randomnessService.availableSessionSecrets()).isEqualTo(4);
+  }
+
+  @Test
+  void nothingIsGeneratedAheadWithoutQueue() {
+    final RandomnessService randomnessService = randomnessService(0);
+    randomnessService.refillSessionSecrets();
+
+    assertThat(randomnessService.takeSessionSecrets()).isNotNull();
+    assertThat(randomnessService.availableSessionSecrets()).isZero();
+    assertThat(backgroundTasks).isEmpty();
+  }
+
+  private RandomnessService randomnessService(final int sessionSecretsQueueSize) {
+    return new RandomnessService(
+        FdAuthServerConfiguration.builder()
+            .randomness(
+                RandomnessConfig.builder().sessionSecretsQueueSize(sessionSecretsQueueSize).build())
+            .build(),
+        backgroundTasks::add);
+  }
+}
@@ -0,0 +1,163 @@
+/*
+ *  Copyright 2023 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.idp.graserver.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.sun.net.httpserver.HttpServer;
+import de.gematik.idp.graserver.configuration.FdAuthServerConfiguration;
+import de.gematik.idp.graserver.configuration.OutboundConfig;
+import de.gematik.idp.graserver.configuration.RetryConfig;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntUnaryOperator;
+import javax.net.ssl.SSLContext;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.env.StandardEnvironment;
+
+class RetryingGetExecutorTest {
+
+  private static final String PATH = "/.well-known/openid-federation";
+
+  private final AtomicInteger requests = new AtomicInteger();
+  private OutboundClientRegistry outboundClientRegistry;
+  private HttpServer fedmaster;
+  private String url;
+  private volatile IntUnaryOperator statusOfRequest = nr -> 200;
+
+  @BeforeEach
+  void setup() throws Exception {
+    outboundClientRegistry =
+        new OutboundClientRegistry(
+            FdAuthServerConfiguration.builder().build(),
+            SSLContext.getDefault(),
+            new SimpleMeterRegistry(),
+            new StandardEnvironment());
+    fedmaster = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    fedmaster.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+    fedmaster.createContext(
+        PATH,
+        exchange -> {
+          exchange.sendResponseHeaders(statusOfRequest.applyAsInt(requests.incrementAndGet()), -1);
+          exchange.close();
+        });
+    fedmaster.start();
+    url = "http://127.0.0.1:" + fedmaster.getAddress().getPort() + PATH;
+  }
+
+  @AfterEach
+  void tearDown() {
+    outboundClientRegistry.close();
+    fedmaster.stop(0);
+  }
+
+  @Test
+  void serverErrorsAreRetried() {
+    statusOfRequest = nr -> nr < 3 ? 503 : 200;
+    final RetryingGetExecutor retryingGetExecutor =
+        executor(RetryConfig.builder().initialBackoff(Duration.ofMillis(1)).build());
+
+    assertThat(retryingGetExecutor.get(() -> outboundClientRegistry.get(url)).getStatus())
+        .isEqualTo(200);
+    assertThat(requests).hasValue(3);
+  }
+
+  @Test
+  void clientErrorsAreNotRetried() {
+    statusOfRequest = nr -> 404;
+    final RetryingGetExecutor retryingGetExecutor = executor(RetryConfig.builder().build());
+
+    assertThat(retryingGetExecutor.get(() -> outboundClientRegistry.get(url)).getStatus())
+        .isEqualTo(404);
+    assertThat(requests).hasValue(1);
+  }
+
+  @Test
+  void retriesStopWhenBudgetIsExhausted() {
+    statusOfRequest = nr -> 500;
+    final RetryingGetExecutor retryingGetExecutor =
+        executor(
+            RetryConfig.builder()
+                .initialBackoff(Duration.ofMillis(1))
+                .budgetRatio(0)
+                .budgetMaxTokens(1)
+                .build());
+
+    assertThat(retryingGetExecutor.get(() -> outboundClientRegistry.get(url)).getStatus())
+        .isEqualTo(500);
+    assertThat(requests).hasValue(2);
+    assertThat(retryingGetExecutor.get(() -> outboundClientRegistry.get(url)).getStatus())
+        .isEqualTo(500);
+    assertThat(requests).hasValue(3);
+    assertThat(retryingGetExecutor.remainingBudget()).isZero();
+  }
+
+  @Test
+  void slowRequestIsHedged() {
+    final RetryingGetExecutor retryingGetExecutor =
+        executor(
+            RetryConfig.builder().hedging(true).hedgingMinDelay(Duration.ofMillis(20)).build());
+    for (int i = 0; i < 20; i++) {
+      retryingGetExecutor.get(() -> outboundClientRegistry.get(url));
+    }
+    statusOfRequest =
+        nr -> {
+          if (nr == 21) {
+            sleep(5000);
+          }
+          return 200;
+        };
+
+    final long start = System.currentTimeMillis();
+    assertThat(retryingGetExecutor.get(() -> outboundClientRegistry.get(url)).getStatus())
+        .isEqualTo(200);
+    assertThat(System.currentTimeMillis() - start).isLessThan(2000);
+    assertThat(requests).hasValue(22);
+  }
+
+  @Test
+  void latenciesAreKeptForMaxDestinationsOnly() {
+    final RetryingGetExecutor retryingGetExecutor =
+        new RetryingGetExecutor(
+            FdAuthServerConfiguration.builder()
+                .outbound(OutboundConfig.builder().maxDestinations(1).build())
+                .build());
+    retryingGetExecutor.get(() -> outboundClientRegistry.get(url));
+    retryingGetExecutor.get(
+        () -> outboundClientRegistry.get(url.replace("127.0.0.1", "localhost")));
+
+    assertThat(requests).hasValue(2);
+    assertThat(retryingGetExecutor.latencyWindowCount()).isEqualTo(1);
+  }
+
+  private static RetryingGetExecutor executor(final RetryConfig retryConfig) {
+    return new RetryingGetExecutor(FdAuthServerConfiguration.builder().retry(retryConfig).build());
+  }
+
+  private static void sleep(final long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,58 @@
+/*
+ *  Copyright 2023 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.idp.graserver.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import de.gematik.idp.data.FederationPubKey;
+import de.gematik.idp.token.JsonWebToken;
+import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+@SpringBootTest
+class SignedEntityStatementCacheTest {
+
+  @Autowired private SignedEntityStatementCache signedEntityStatementCache;
+  @Autowired private FederationPubKey esSigPubKey;
+
+  @Test
+  void entityStatementIsSignedOnlyOnce() {
+    final byte[] first = signedEntityStatementCache.getEntityStatement();
+    signedEntityStatementCache.resignIfDue();
+    assertThat(signedEntityStatementCache.getEntityStatement()).isSameAs(first);
+  }
+
+  @Test
+  void cachedEntityStatementIsValid() {
+    final JsonWebToken entityStatement =
+        new JsonWebToken(
+            new String(signedEntityStatementCache.getEntityStatement(), StandardCharsets.UTF_8));
+    assertThat(entityStatement.getExpiresAt()).isAfter(ZonedDateTime.now());
+  }
+
+  @Test
+  void cachedEntityStatementIsSignedWithEsSigKey() {
+    final JsonWebToken entityStatement =
+        new JsonWebToken(
+            new String(signedEntityStatementCache.getEntityStatement(), StandardCharsets.UTF_8));
+    entityStatement.verify(esSigPubKey.getPublicKey().orElseThrow());
+    assertThat(entityStatement.extractHeaderClaims()).containsEntry("kid", "puk_fd_sig");
+  }
+}
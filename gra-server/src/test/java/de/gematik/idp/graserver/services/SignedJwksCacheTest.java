@@ -0,0 +1,53 @@
+/*
+ *  Copyright 2023 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.idp.graserver.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import de.gematik.idp.data.FederationPubKey;
+import de.gematik.idp.graserver.services.SignedJwksCache.SignedJwks;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+@SpringBootTest
+class SignedJwksCacheTest {
+
+  @Autowired private SignedJwksCache signedJwksCache;
+  @Autowired private FederationPubKey tlsClientPubKeyRotation;
+
+  @Test
+  void signedJwksIsNotRebuiltWhileKeysAreUnchanged() {
+    final SignedJwks first = signedJwksCache.getSignedJwks();
+    signedJwksCache.rebuildIfOutdated();
+    assertThat(signedJwksCache.getSignedJwks()).isSameAs(first);
+  }
+
+  @Test
+  void signedJwksIsRebuiltWhenKeyChanges() {
+    final SignedJwks first = signedJwksCache.getSignedJwks();
+    final String keyId = tlsClientPubKeyRotation.getKeyId();
+    try {
+      tlsClientPubKeyRotation.setKeyId("puk_tls_sig_rotation_2");
+      signedJwksCache.rebuildIfOutdated();
+      assertThat(signedJwksCache.getSignedJwks().etag()).isNotEqualTo(first.etag());
+    } finally {
+      tlsClientPubKeyRotation.setKeyId(keyId);
+      signedJwksCache.rebuildIfOutdated();
+    }
+  }
+}
@@ -0,0 +1,151 @@
+/*
+ *  Copyright 2023 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.idp.graserver.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class SingleFlightCacheTest {
+
+  private final SingleFlightCache<String, String> cache =
+      new SingleFlightCache<>(value -> !value.startsWith("expired"));
+
+  @Test
+  void concurrentCallersShareOneLoad() throws Exception {
+    final AtomicInteger loads = new AtomicInteger();
+    final CountDownLatch release = new CountDownLatch(1);
+    final ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      final List<Future<String>> results = new ArrayList<>();
+      for (int i = 0; i < 8; i++) {
+        results.add(
+            executor.submit(
+                () ->
+                    cache.get(
+                        "iss",
+                        key -> {
+                          loads.incrementAndGet();
+                          await(release);
+                          return "statement";
+                        })));
+      }
+      TimeUnit.MILLISECONDS.sleep(200);
+      release.countDown();
+      for (final Future<String> result : results) {
+        assertThat(result.get(5, TimeUnit.SECONDS)).isEqualTo("statement");
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    assertThat(loads).hasValue(1);
+  }
+
+  @Test
+  void invalidValueIsReloaded() {
+    cache.put("iss", "expired statement");
+    assertThat(cache.get("iss", key -> "statement")).isEqualTo("statement");
+    assertThat(cache.get("iss", key -> "other")).isEqualTo("statement");
+  }
+
+  @Test
+  void refreshReplacesValidValue() {
+    cache.put("iss", "statement");
+    assertThat(cache.refresh("iss", key -> "new statement")).isEqualTo("new statement");
+    assertThat(cache.peek("iss")).contains("new statement");
+  }
+
+  @Test
+  void failedLoadIsNotCached() {
+    assertThatThrownBy(
+            () ->
+                cache.get(
+                    "iss",
+                    key -> {
+                      throw new IllegalStateException("idp down");
+                    }))
+        .isInstanceOf(IllegalStateException.class);
+    assertThat(cache.peek("iss")).isEmpty();
+    assertThat(cache.get("iss", key -> "statement")).isEqualTo("statement");
+  }
+
+  @Test
+  void getAsyncReturnsValidValueWithoutLoading() {
+    cache.put("iss", "statement");
+    assertThat(
+            cache.getAsync(
+                "iss",
+                key -> {
+                  throw new IllegalStateException("must not load");
+                },
+                Runnable::run))
+        .isCompletedWithValue("statement");
+  }
+
+  @Test
+  void getAsyncJoinsLoadInFlight() throws Exception {
+    final AtomicInteger loads = new AtomicInteger();
+    final CountDownLatch release = new CountDownLatch(1);
+    final ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      final Future<String> blockingGet =
+          executor.submit(
+              () ->
+                  cache.get(
+                      "iss",
+                      key -> {
+                        loads.incrementAndGet();
+                        await(release);
+                        return "statement";
+                      }));
+      TimeUnit.MILLISECONDS.sleep(200);
+      final CompletableFuture<String> asyncGet =
+          cache.getAsync(
+              "iss",
+              key -> {
+                loads.incrementAndGet();
+                return "other";
+              },
+              Runnable::run);
+      assertThat(asyncGet).isNotDone();
+      release.countDown();
+      assertThat(asyncGet.get(5, TimeUnit.SECONDS)).isEqualTo("statement");
+      assertThat(blockingGet.get(5, TimeUnit.SECONDS)).isEqualTo("statement");
+    } finally {
+      executor.shutdownNow();
+    }
+    assertThat(loads).hasValue(1);
+  }
+
+  private static void await(final CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,98 @@
+/*
+ *  Copyright 2023 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.idp.graserver.services;
+
+import static de.gematik.idp.graserver.common.TestConstants.ENTITY_STATEMENT_FROM_IDP_EXPIRED;
+import static de.gematik.idp.graserver.common.TestConstants.ENTITY_STMNT_IDP_EXPIRES_IN_YEAR_2043;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import de.gematik.idp.graserver.configuration.CacheConfig;
+import de.gematik.idp.graserver.configuration.FdAuthServerConfiguration;
+import de.gematik.idp.token.JsonWebToken;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class VerifiedJwsCacheTest {
+
+  private VerifiedJwsCache verifiedJwsCache;
+  private PublicKey key;
+
+  @BeforeEach
+  void setup() throws NoSuchAlgorithmException {
+    verifiedJwsCache =
+        new VerifiedJwsCache(
+            FdAuthServerConfiguration.builder()
+                .cache(CacheConfig.builder().verifiedJwsMaxEntries(2).build())
+                .build());
+    key = generateKey();
+  }
+
+  @Test
+  void identicalJwsIsVerifiedOnce() {
+    final JsonWebToken first = unverifiedToken(ENTITY_STMNT_IDP_EXPIRES_IN_YEAR_2043);
+    final JsonWebToken refetched = unverifiedToken(ENTITY_STMNT_IDP_EXPIRES_IN_YEAR_2043);
+    verifiedJwsCache.verify(first, key);
+    verifiedJwsCache.verify(refetched, key);
+    verify(first).verify(key);
+    verify(refetched, times(0)).verify(key);
+  }
+
+  @Test
+  void otherKeyVerifiesAgain() throws NoSuchAlgorithmException {
+    final PublicKey rotatedKey = generateKey();
+    final JsonWebToken jws = unverifiedToken(ENTITY_STMNT_IDP_EXPIRES_IN_YEAR_2043);
+    verifiedJwsCache.verify(jws, key);
+    verifiedJwsCache.verify(jws, rotatedKey);
+    verify(jws).verify(key);
+    verify(jws).verify(rotatedKey);
+  }
+
+  @Test
+  void expiredJwsIsVerifiedEveryTime() {
+    final JsonWebToken jws = unverifiedToken(ENTITY_STATEMENT_FROM_IDP_EXPIRED);
+    verifiedJwsCache.verify(jws, key);
+    verifiedJwsCache.verify(jws, key);
+    verify(jws, times(2)).verify(key);
+  }
+
+  @Test
+  void cacheIsBounded() {
+    for (int i = 0; i < 3; i++) {
+      verifiedJwsCache.verify(
+          unverifiedToken(ENTITY_STMNT_IDP_EXPIRES_IN_YEAR_2043 + "x".repeat(i)), key);
+    }
+    assertThat(verifiedJwsCache.size()).isEqualTo(2);
+  }
+
+  private static JsonWebToken unverifiedToken(final String rawString) {
+    final JsonWebToken jws = spy(new JsonWebToken(rawString));
+    doNothing().when(jws).verify(any(PublicKey.class));
+    return jws;
+  }
+
+  private static PublicKey generateKey() throws NoSuchAlgorithmException {
+    return KeyPairGenerator.getInstance("EC").generateKeyPair().getPublic();
+  }
+}
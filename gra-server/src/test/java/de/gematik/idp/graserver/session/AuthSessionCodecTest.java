@@ -0,0 +1,73 @@
+/*
+ *  Copyright 2023 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.idp.graserver.session;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import de.gematik.idp.graserver.data.AuthSession;
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+
+class AuthSessionCodecTest {
+
+  private static AuthSession buildSession() {
+    final AuthSession session =
+        AuthSession.builder()
+            .frontendClientId("clientId")
+            .frontendState("frontendState")
+            .fdAuthServerCodeVerifier("codeVerifier")
+            .idpIss("idpIss")
+            .build();
+    session.setFdAuthServerAuthorizationCode("authorizationCode");
+    return session;
+  }
+
+  @Test
+  void sessionIsRestored() {
+    assertThat(AuthSessionCodec.decode(AuthSessionCodec.encode(buildSession())))
+        .hasValueSatisfying(
+            session -> {
+              assertThat(session.getFrontendClientId()).isEqualTo("clientId");
+              assertThat(session.getFrontendRedirectUri()).isNull();
+              assertThat(session.getFdAuthServerCodeVerifier()).isEqualTo("codeVerifier");
+              assertThat(session.getFdAuthServerAuthorizationCode()).isEqualTo("authorizationCode");
+            });
+  }
+
+  @Test
+  void unknownVersionIsUnknownSession() {
+    final byte[] encoded = AuthSessionCodec.encode(buildSession());
+    encoded[0] = 2;
+    assertThat(AuthSessionCodec.decode(encoded)).isEmpty();
+  }
+
+  @Test
+  void lengthBeyondEncodedSessionIsUnknownSession() {
+    assertThat(AuthSessionCodec.decode(new byte[] {1, 0x7F, 'a'})).isEmpty();
+  }
+
+  @Test
+  void negativeLengthIsUnknownSession() {
+    assertThat(AuthSessionCodec.decode(new byte[] {1, -1, -1, -1, -1, 0x0F})).isEmpty();
+  }
+
+  @Test
+  void truncatedSessionIsUnknownSession() {
+    final byte[] encoded = AuthSessionCodec.encode(buildSession());
+    assertThat(AuthSessionCodec.decode(Arrays.copyOf(encoded, encoded.length / 2))).isEmpty();
+  }
+}
@@ -0,0 +1,161 @@
+/*
+ *  Copyright 2023 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.idp.graserver.session;
+
+import de.gematik.idp.graserver.configuration.FdAuthServerConfiguration;
+import de.gematik.idp.graserver.configuration.SessionStoreConfig;
+import de.gematik.idp.graserver.data.AuthSession;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import javax.crypto.spec.SecretKeySpec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the heap and the mapped session store. Each operation consumes a random session (message
+ * nr.9) and stores it again (message nr.1), so the store keeps its size. Expired sessions are
+ * evicted at the rate of the production schedule of each store. The sample time mode reports p99
+ * latencies, the heap occupied by the filled store is printed during setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Threads(4)
+public class AuthSessionStoreBenchmark {
+
+  private static final Duration TIME_TO_LIVE = Duration.ofHours(1);
+
+  @Param({"10000", "100000", "1000000"})
+  private int sessions;
+
+  @Param({"MEMORY", "MAPPED"})
+  private SessionStoreConfig.SessionStoreType type;
+
+  private AuthSessionStore authSessionStore;
+  private ScheduledExecutorService evictionScheduler;
+  private String[] states;
+  private Path mappedFile;
+
+  @Setup(Level.Trial)
+  public void fillStore() throws IOException {
+    states = new String[sessions];
+    for (int i = 0; i < sessions; i++) {
+      states[i] = "%032x".formatted(i);
+    }
+    mappedFile = Files.createTempFile("auth-sessions", ".dat");
+    final FdAuthServerConfiguration configuration =
+        FdAuthServerConfiguration.builder()
+            .sessionStore(
+                SessionStoreConfig.builder()
+                    .maxSessions(sessions)
+                    .mappedFile(mappedFile.toString())
+                    .mappedSlots(sessions * 2)
+                    .mappedSlotSize(512)
+                    .build())
+            .build();
+    final long heapBefore = usedHeap();
+    final Runnable evictExpiredSessions;
+    final long evictionPeriodMillis;
+    switch (type) {
+      case MEMORY -> {
+        final ConcurrentAuthSessionStore store = new ConcurrentAuthSessionStore(configuration);
+        authSessionStore = store;
+        evictExpiredSessions = store::evictExpiredSessions;
+        evictionPeriodMillis = 1000;
+      }
+      case MAPPED -> {
+        final MappedFileAuthSessionStore store =
+            new MappedFileAuthSessionStore(configuration, new SecretKeySpec(new byte[32], "AES"));
+        authSessionStore = store;
+        evictExpiredSessions = store::evictExpiredSessions;
+        evictionPeriodMillis = 10000;
+      }
+      default -> throw new IllegalArgumentException("see ReplicatedAuthSessionStoreBenchmark");
+    }
+    for (final String state : states) {
+      authSessionStore.put(state, buildSession(state), TIME_TO_LIVE);
+    }
+    // the first tick moves the filled sessions into the timing wheel, as in production
+    evictExpiredSessions.run();
+    evictionScheduler = Executors.newSingleThreadScheduledExecutor();
+    evictionScheduler.scheduleAtFixedRate(
+        evictExpiredSessions, evictionPeriodMillis, evictionPeriodMillis, TimeUnit.MILLISECONDS);
+    System.out.printf(
+        "%n%s store with %d sessions occupies %d KiB heap%n",
+        type, sessions, (usedHeap() - heapBefore) / 1024);
+  }
+
+  @TearDown(Level.Trial)
+  public void deleteMappedFile() throws IOException {
+    evictionScheduler.shutdownNow();
+    authSessionStore = null;
+    Files.deleteIfExists(mappedFile);
+  }
+
+  @Benchmark
+  public Optional<AuthSession> consumeAndStore() {
+    final String state = states[ThreadLocalRandom.current().nextInt(sessions)];
+    final Optional<AuthSession> session = authSessionStore.remove(state);
+    authSessionStore.put(state, session.orElseGet(() -> buildSession(state)), TIME_TO_LIVE);
+    return session;
+  }
+
+  private static AuthSession buildSession(final String state) {
+    return AuthSession.builder()
+        .frontendClientId("https://Fachdienst007.de/client")
+        .frontendState(state)
+        .frontendRedirectUri("https://Fachdienst007.de/client/auth")
+        .frontendCodeChallenge("P62rd1KSUnScGIEs1WrpYj3g_poTqmx8mM4msxehNdk")
+        .frontendCodeChallengeMethod("S256")
+        .frontendResponseType("code")
+        .frontendScope("urn:telematik:display_name urn:telematik:versicherter openid")
+        .fdAuthServerCodeVerifier("z4IFTEIhgUKQjB1xgQkVDRo9vGcFodnBZhv4Gs9wtZY")
+        .frontendNonce("42")
+        .idpIss("https://idpsek.dev.gematik.solutions")
+        .build();
+  }
+
+  private static long usedHeap() {
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+  }
+}
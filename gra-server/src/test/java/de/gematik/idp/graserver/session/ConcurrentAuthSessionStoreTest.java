@@ -0,0 +1,89 @@
+/*
+ *  Copyright 2023 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.idp.graserver.session;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import de.gematik.idp.graserver.configuration.FdAuthServerConfiguration;
+import de.gematik.idp.graserver.configuration.SessionStoreConfig;
+import de.gematik.idp.graserver.data.AuthSession;
+import de.gematik.idp.graserver.exceptions.FdAuthServerException;
+import java.time.Duration;
+import org.junit.jupiter.api.Test;
+
+class ConcurrentAuthSessionStoreTest {
+
+  private final MutableClock clock = new MutableClock();
+  private final ConcurrentAuthSessionStore authSessionStore =
+      new ConcurrentAuthSessionStore(
+          FdAuthServerConfiguration.builder()
+              .sessionStore(SessionStoreConfig.builder().maxSessions(2).build())
+              .build(),
+          clock);
+
+  private static AuthSession buildSession(final String frontendState) {
+    return AuthSession.builder().frontendState(frontendState).idpIss("idpIss").build();
+  }
+
+  @Test
+  void sessionIsRemovedOnConsumption() {
+    authSessionStore.put("state", buildSession("frontendState"), Duration.ofMinutes(1));
+    assertThat(authSessionStore.remove("state")).isPresent();
+    assertThat(authSessionStore.remove("state")).isEmpty();
+    assertThat(authSessionStore.size()).isZero();
+  }
+
+  @Test
+  void expiredSessionIsNotReturned() {
+    authSessionStore.put("state", buildSession("frontendState"), Duration.ZERO);
+    assertThat(authSessionStore.remove("state")).isEmpty();
+  }
+
+  @Test
+  void expiredSessionIsEvicted() {
+    authSessionStore.put("state", buildSession("frontendState"), Duration.ofSeconds(90));
+    clock.advance(Duration.ofSeconds(89));
+    authSessionStore.evictExpiredSessions();
+    assertThat(authSessionStore.size()).isOne();
+    clock.advance(Duration.ofSeconds(2));
+    authSessionStore.evictExpiredSessions();
+    assertThat(authSessionStore.size()).isZero();
+  }
+
+  @Test
+  void replacedSessionIsNotEvictedByOutdatedExpiry() {
+    authSessionStore.put("state", buildSession("first"), Duration.ofSeconds(1));
+    authSessionStore.put("state", buildSession("second"), Duration.ofMinutes(1));
+    clock.advance(Duration.ofSeconds(2));
+    authSessionStore.evictExpiredSessions();
+    assertThat(authSessionStore.remove("state"))
+        .map(AuthSession::getFrontendState)
+        .contains("second");
+  }
+
+  @Test
+  void newSessionIsRejectedWhenStoreIsFull() {
+    authSessionStore.put("state1", buildSession("frontendState"), Duration.ofMinutes(1));
+    authSessionStore.put("state2", buildSession("frontendState"), Duration.ofMinutes(1));
+    assertThatThrownBy(
+            () ->
+                authSessionStore.put(
+                    "state3", buildSession("frontendState"), Duration.ofMinutes(1)))
+        .isInstanceOf(FdAuthServerException.class);
+  }
+}
@@ -0,0 +1,65 @@
+/*
+ *  Copyright 2023 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.idp.graserver.session;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class HierarchicalTimingWheelTest {
+
+  private static final long TICK_MILLIS = 1000;
+  private static final long START_MILLIS = 1_700_000_000_000L;
+
+  private final HierarchicalTimingWheel<String> timingWheel =
+      new HierarchicalTimingWheel<>(TICK_MILLIS, START_MILLIS);
+  private final List<String> expired = new ArrayList<>();
+
+  @Test
+  void itemExpiresNotBeforeDeadline() {
+    timingWheel.schedule("a", START_MILLIS + 5500);
+    timingWheel.advance(START_MILLIS + 5000, expired::add);
+    assertThat(expired).isEmpty();
+    timingWheel.advance(START_MILLIS + 6000, expired::add);
+    assertThat(expired).containsExactly("a");
+  }
+
+  @Test
+  void itemsOnHigherLevelsAreCascaded() {
+    final long[] deadlineSeconds = {63, 64, 65, 4095, 4096, 4097, 300000};
+    for (final long deadlineSecond : deadlineSeconds) {
+      timingWheel.schedule(String.valueOf(deadlineSecond), START_MILLIS + deadlineSecond * 1000);
+    }
+    for (final long deadlineSecond : deadlineSeconds) {
+      timingWheel.advance(START_MILLIS + (deadlineSecond - 1) * 1000, expired::add);
+      assertThat(expired).doesNotContain(String.valueOf(deadlineSecond));
+      timingWheel.advance(START_MILLIS + deadlineSecond * 1000, expired::add);
+      assertThat(expired).contains(String.valueOf(deadlineSecond));
+    }
+    assertThat(expired).hasSize(deadlineSeconds.length);
+  }
+
+  @Test
+  void itemInThePastExpiresImmediately() {
+    timingWheel.advance(START_MILLIS + 10000, expired::add);
+    timingWheel.schedule("past", START_MILLIS + 2000);
+    timingWheel.advance(START_MILLIS + 10000, expired::add);
+    assertThat(expired).containsExactly("past");
+  }
+}
@@ -0,0 +1,206 @@
+/*
+ *  Copyright 2023 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.idp.graserver.session;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import de.gematik.idp.graserver.configuration.FdAuthServerConfiguration;
+import de.gematik.idp.graserver.configuration.SessionStoreConfig;
+import de.gematik.idp.graserver.data.AuthSession;
+import de.gematik.idp.graserver.exceptions.FdAuthServerException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.Key;
+import java.time.Duration;
+import javax.crypto.spec.SecretKeySpec;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class MappedFileAuthSessionStoreTest {
+
+  private static final Key SYMMETRIC_ENCRYPTION_KEY = new SecretKeySpec(new byte[32], "AES");
+
+  @TempDir private Path tempDir;
+  private final MutableClock clock = new MutableClock();
+
+  private MappedFileAuthSessionStore openStore(final int slots, final int slotSize) {
+    return openStore(slots, slotSize, SYMMETRIC_ENCRYPTION_KEY);
+  }
+
+  private MappedFileAuthSessionStore openStore(
+      final int slots, final int slotSize, final Key symmetricEncryptionKey) {
+    return new MappedFileAuthSessionStore(
+        FdAuthServerConfiguration.builder()
+            .sessionStore(
+                SessionStoreConfig.builder()
+                    .maxSessions(slots - 1)
+                    .mappedFile(sessionsFile().toString())
+                    .mappedSlots(slots)
+                    .mappedSlotSize(slotSize)
+                    .build())
+            .build(),
+        symmetricEncryptionKey,
+        clock);
+  }
+
+  private Path sessionsFile() {
+    return tempDir.resolve("gras").resolve("sessions.dat");
+  }
+
+  private static AuthSession buildSession(final String frontendState) {
+    return AuthSession.builder()
+        .fdAuthServerCodeVerifier("z4IFTEIhgUKQjB1xgQkVDRo9vGcFodnBZhv4Gs9wtZY")
+        .frontendClientId("clientId")
+        .frontendState(frontendState)
+        .frontendRedirectUri("https://redirect.example/cb")
+        .frontendScope("openid urn:telematik:versicherter")
+        .idpIss("idpIss")
+        .build();
+  }
+
+  @Test
+  void sessionIsRemovedOnConsumption() {
+    final MappedFileAuthSessionStore authSessionStore = openStore(16, 512);
+    authSessionStore.put("state", buildSession("frontendState"), Duration.ofMinutes(1));
+    assertThat(authSessionStore.remove("state"))
+        .hasValueSatisfying(
+            session -> {
+              assertThat(session.getFrontendState()).isEqualTo("frontendState");
+              assertThat(session.getFrontendRedirectUri()).isEqualTo("https://redirect.example/cb");
+              assertThat(session.getFrontendNonce()).isNull();
+            });
+    assertThat(authSessionStore.remove("state")).isEmpty();
+    assertThat(authSessionStore.size()).isZero();
+  }
+
+  @Test
+  void replacedSessionIsReturned() {
+    final MappedFileAuthSessionStore authSessionStore = openStore(16, 512);
+    authSessionStore.put("state", buildSession("first"), Duration.ofSeconds(1));
+    authSessionStore.put("state", buildSession("second"), Duration.ofMinutes(1));
+    clock.advance(Duration.ofSeconds(2));
+    assertThat(authSessionStore.size()).isOne();
+    assertThat(authSessionStore.remove("state"))
+        .map(AuthSession::getFrontendState)
+        .contains("second");
+  }
+
+  @Test
+  void sessionsSurviveReopening() {
+    final MappedFileAuthSessionStore authSessionStore = openStore(16, 512);
+    authSessionStore.put("state", buildSession("frontendState"), Duration.ofMinutes(1));
+    authSessionStore.flush();
+
+    final MappedFileAuthSessionStore reopened = openStore(16, 512);
+    assertThat(reopened.size()).isOne();
+    assertThat(reopened.remove("state")).isPresent();
+  }
+
+  @Test
+  void sessionsAreStoredEncryptedAndOwnerOnly() throws IOException {
+    final MappedFileAuthSessionStore authSessionStore = openStore(16, 512);
+    authSessionStore.put("state", buildSession("frontendState"), Duration.ofMinutes(1));
+    authSessionStore.flush();
+
+    assertThat(new String(Files.readAllBytes(sessionsFile()), StandardCharsets.ISO_8859_1))
+        .contains("state")
+        .doesNotContain("z4IFTEIhgUKQjB1xgQkVDRo9vGcFodnBZhv4Gs9wtZY")
+        .doesNotContain("frontendState");
+    assumeTrue(FileSystems.getDefault().supportedFileAttributeViews().contains("posix"));
+    assertThat(PosixFilePermissions.toString(Files.getPosixFilePermissions(sessionsFile())))
+        .isEqualTo("rw-------");
+    assertThat(
+            PosixFilePermissions.toString(
+                Files.getPosixFilePermissions(sessionsFile().getParent())))
+        .isEqualTo("rwx------");
+  }
+
+  @Test
+  void sessionsOfOtherKeyAreDiscarded() {
+    final MappedFileAuthSessionStore authSessionStore = openStore(16, 512);
+    authSessionStore.put("state", buildSession("frontendState"), Duration.ofMinutes(1));
+    authSessionStore.flush();
+
+    final MappedFileAuthSessionStore reopened =
+        openStore(16, 512, new SecretKeySpec(new byte[32], 0, 16, "AES"));
+    assertThat(reopened.remove("state")).isEmpty();
+  }
+
+  @Test
+  void changedLayoutDiscardsSessions() {
+    openStore(16, 512).put("state", buildSession("frontendState"), Duration.ofMinutes(1));
+    final MappedFileAuthSessionStore reopened = openStore(16, 1024);
+    assertThat(reopened.size()).isZero();
+    assertThat(reopened.remove("state")).isEmpty();
+  }
+
+  @Test
+  void expiredSessionsAreEvictedAndSlotsReused() {
+    final MappedFileAuthSessionStore authSessionStore = openStore(16, 512);
+    for (int i = 0; i < 15; i++) {
+      authSessionStore.put("state" + i, buildSession("frontendState"), Duration.ofSeconds(10));
+    }
+    clock.advance(Duration.ofSeconds(11));
+    assertThat(authSessionStore.remove("state0")).isEmpty();
+    authSessionStore.evictExpiredSessions();
+    assertThat(authSessionStore.size()).isZero();
+    for (int i = 0; i < 15; i++) {
+      authSessionStore.put("new" + i, buildSession("frontendState"), Duration.ofSeconds(10));
+    }
+    assertThat(authSessionStore.remove("new7")).isPresent();
+  }
+
+  @Test
+  void newSessionIsRejectedWhenStoreIsFull() {
+    final MappedFileAuthSessionStore authSessionStore = openStore(4, 512);
+    for (int i = 0; i < 3; i++) {
+      authSessionStore.put("state" + i, buildSession("frontendState"), Duration.ofMinutes(1));
+    }
+    assertThatThrownBy(
+            () ->
+                authSessionStore.put(
+                    "state3", buildSession("frontendState"), Duration.ofMinutes(1)))
+        .isInstanceOf(FdAuthServerException.class);
+  }
+
+  @Test
+  void sessionLargerThanSlotIsRejected() {
+    final MappedFileAuthSessionStore authSessionStore = openStore(16, 128);
+    assertThatThrownBy(
+            () ->
+                authSessionStore.put("state", buildSession("x".repeat(200)), Duration.ofMinutes(1)))
+        .isInstanceOf(FdAuthServerException.class);
+  }
+
+  @Test
+  void mappedFileIsRequired() {
+    final FdAuthServerConfiguration configuration =
+        FdAuthServerConfiguration.builder()
+            .sessionStore(SessionStoreConfig.builder().mappedFile(" ").build())
+            .build();
+    assertThatThrownBy(
+            () -> new MappedFileAuthSessionStore(configuration, SYMMETRIC_ENCRYPTION_KEY, clock))
+        .isInstanceOf(IllegalStateException.class)
+        .hasMessageContaining("mappedFile");
+  }
+}
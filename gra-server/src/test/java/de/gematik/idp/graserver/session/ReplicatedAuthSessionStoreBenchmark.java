@@ -0,0 +1,202 @@
+/*
+ *  Copyright 2023 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.idp.graserver.session;
+
+import de.gematik.idp.graserver.configuration.FdAuthServerConfiguration;
+import de.gematik.idp.graserver.configuration.SessionStoreConfig;
+import de.gematik.idp.graserver.data.AuthSession;
+import java.io.IOException;
+import java.lang.ProcessBuilder.Redirect;
+import java.net.ServerSocket;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of App2App flows (message nr.1 stores a session, message nr.9 consumes it) in a
+ * cluster of replicated session stores. The benchmark JVM is one node, the others run in separate
+ * JVMs and put the same load on the cluster via {@link LoadNode}. The score is the flow rate of one
+ * node, so the cluster rate is score * nodes; a constant score means linear scaling as long as
+ * every node gets its own cores.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@Threads(ReplicatedAuthSessionStoreBenchmark.THREADS)
+public class ReplicatedAuthSessionStoreBenchmark {
+
+  static final int THREADS = 4;
+
+  private static final Duration TIME_TO_LIVE = Duration.ofMinutes(10);
+  private static final String SECRET = "benchmark";
+
+  @Param({"1", "2", "4"})
+  private int nodes;
+
+  private ReplicatedAuthSessionStore authSessionStore;
+  private final List<Process> loadNodes = new ArrayList<>();
+
+  @Setup(Level.Trial)
+  public void startCluster() throws IOException, InterruptedException {
+    final List<String> nodeIds = new ArrayList<>();
+    for (int i = 0; i < nodes; i++) {
+      try (final ServerSocket socket = new ServerSocket(0)) {
+        nodeIds.add("localhost:" + socket.getLocalPort());
+      }
+    }
+    authSessionStore =
+        new ReplicatedAuthSessionStore(
+            configuration(nodeIds.getFirst(), nodeIds),
+            ReplicatedAuthSessionStoreTest.SYMMETRIC_ENCRYPTION_KEY);
+    final String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+    for (final String nodeId : nodeIds.subList(1, nodes)) {
+      loadNodes.add(
+          new ProcessBuilder(
+                  java,
+                  "-cp",
+                  System.getProperty("java.class.path"),
+                  LoadNode.class.getName(),
+                  nodeId,
+                  String.join(",", nodeIds))
+              .redirectOutput(Redirect.DISCARD)
+              .redirectError(Redirect.INHERIT)
+              .start());
+    }
+    for (final String nodeId : nodeIds.subList(1, nodes)) {
+      awaitNode(nodeId);
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void stopCluster() throws IOException {
+    loadNodes.forEach(Process::destroy);
+    loadNodes.clear();
+    authSessionStore.close();
+  }
+
+  @Benchmark
+  public Optional<AuthSession> flow() {
+    return LoadNode.runFlow(authSessionStore);
+  }
+
+  static FdAuthServerConfiguration configuration(final String nodeId, final List<String> nodeIds) {
+    return FdAuthServerConfiguration.builder()
+        .sessionStore(
+            SessionStoreConfig.builder()
+                .maxSessions(1000000)
+                .replicationNodeId(nodeId)
+                .replicationPort(Integer.parseInt(nodeId.substring(nodeId.lastIndexOf(':') + 1)))
+                .replicationNodes(nodeIds)
+                .replicationSecret(SECRET)
+                .build())
+        .build();
+  }
+
+  private static void awaitNode(final String nodeId) throws InterruptedException {
+    final SessionPeerClient client = new SessionPeerClient(nodeId, SECRET, Duration.ofSeconds(1));
+    final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+    while (true) {
+      try {
+        client.take("ping");
+        client.close();
+        return;
+      } catch (final IOException e) {
+        if (System.nanoTime() > deadline) {
+          throw new IllegalStateException("Node " + nodeId + " did not start", e);
+        }
+        Thread.sleep(100);
+      }
+    }
+  }
+
+  /** Node of the cluster running in its own JVM, runs flows until its parent goes away. */
+  public static final class LoadNode {
+
+    private static final AuthSession SESSION =
+        AuthSession.builder()
+            .frontendClientId("https://Fachdienst007.de/client")
+            .frontendRedirectUri("https://Fachdienst007.de/client/auth")
+            .frontendCodeChallenge("P62rd1KSUnScGIEs1WrpYj3g_poTqmx8mM4msxehNdk")
+            .frontendCodeChallengeMethod("S256")
+            .frontendResponseType("code")
+            .frontendScope("urn:telematik:display_name urn:telematik:versicherter openid")
+            .fdAuthServerCodeVerifier("z4IFTEIhgUKQjB1xgQkVDRo9vGcFodnBZhv4Gs9wtZY")
+            .frontendNonce("42")
+            .idpIss("https://idpsek.dev.gematik.solutions")
+            .build();
+
+    private LoadNode() {}
+
+    public static void main(final String[] args) throws IOException {
+      final ReplicatedAuthSessionStore authSessionStore =
+          new ReplicatedAuthSessionStore(
+              configuration(args[0], Arrays.asList(args[1].split(","))),
+              ReplicatedAuthSessionStoreTest.SYMMETRIC_ENCRYPTION_KEY);
+      for (int i = 0; i < THREADS; i++) {
+        final Thread thread =
+            new Thread(
+                () -> {
+                  while (true) {
+                    runFlow(authSessionStore);
+                  }
+                });
+        thread.setDaemon(true);
+        thread.start();
+      }
+      // stdin is closed when the benchmark JVM terminates
+      while (System.in.read() >= 0) {
+        // ignore input
+      }
+      authSessionStore.close();
+    }
+
+    /**
+     * Message nr.1 and nr.9 of one flow. Where a session lives only depends on its state, so
+     * consuming it at the node that stored it costs as much as at any other node.
+     */
+    static Optional<AuthSession> runFlow(final AuthSessionStore authSessionStore) {
+      final byte[] random = new byte[16];
+      ThreadLocalRandom.current().nextBytes(random);
+      final String state = HexFormat.of().formatHex(random);
+      authSessionStore.put(state, SESSION, TIME_TO_LIVE);
+      return authSessionStore.remove(state);
+    }
+  }
+}
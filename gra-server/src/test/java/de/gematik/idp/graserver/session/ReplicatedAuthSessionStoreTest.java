@@ -0,0 +1,207 @@
+/*
+ *  Copyright 2023 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.idp.graserver.session;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import de.gematik.idp.graserver.configuration.FdAuthServerConfiguration;
+import de.gematik.idp.graserver.configuration.SessionStoreConfig;
+import de.gematik.idp.graserver.data.AuthSession;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import javax.crypto.spec.SecretKeySpec;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class ReplicatedAuthSessionStoreTest {
+
+  private static final int NODES = 3;
+  private static final String SECRET = "secret";
+  static final SecretKeySpec SYMMETRIC_ENCRYPTION_KEY = new SecretKeySpec(new byte[32], "AES");
+
+  private final List<ReplicatedAuthSessionStore> nodes = new ArrayList<>();
+
+  static List<ReplicatedAuthSessionStore> startCluster(final int nodeCount) throws IOException {
+    final List<String> nodeIds = new ArrayList<>();
+    for (int i = 0; i < nodeCount; i++) {
+      try (final ServerSocket socket = new ServerSocket(0)) {
+        nodeIds.add("localhost:" + socket.getLocalPort());
+      }
+    }
+    final List<ReplicatedAuthSessionStore> cluster = new ArrayList<>();
+    for (final String nodeId : nodeIds) {
+      cluster.add(
+          new ReplicatedAuthSessionStore(
+              FdAuthServerConfiguration.builder()
+                  .sessionStore(
+                      SessionStoreConfig.builder()
+                          .replicationNodeId(nodeId)
+                          .replicationPort(Integer.parseInt(nodeId.substring(10)))
+                          .replicationNodes(nodeIds)
+                          .replicationSecret(SECRET)
+                          .build())
+                  .build(),
+              SYMMETRIC_ENCRYPTION_KEY));
+    }
+    return cluster;
+  }
+
+  @BeforeEach
+  void startNodes() throws IOException {
+    nodes.addAll(startCluster(NODES));
+  }
+
+  @AfterEach
+  void stopNodes() throws IOException {
+    for (final ReplicatedAuthSessionStore node : nodes) {
+      node.close();
+    }
+  }
+
+  private static AuthSession buildSession(final String frontendState) {
+    return AuthSession.builder().frontendState(frontendState).idpIss("idpIss").build();
+  }
+
+  @Test
+  void sessionIsConsumedOnceAtAnyNode() {
+    for (int i = 0; i < 30; i++) {
+      final String state = "state" + i;
+      nodes.get(i % NODES).put(state, buildSession(state), Duration.ofMinutes(1));
+      assertThat(nodes.get((i + 1) % NODES).remove(state))
+          .map(AuthSession::getFrontendState)
+          .contains(state);
+      for (final ReplicatedAuthSessionStore node : nodes) {
+        assertThat(node.remove(state)).isEmpty();
+      }
+    }
+    assertThat(nodes).allSatisfy(node -> assertThat(node.size()).isZero());
+  }
+
+  @Test
+  void sessionIsHeldByOwnerAndBackupOnly() {
+    nodes.getFirst().put("state", buildSession("state"), Duration.ofMinutes(1));
+    assertThat(nodes.stream().mapToInt(ReplicatedAuthSessionStore::size).sum()).isEqualTo(2);
+  }
+
+  @Test
+  void sessionSurvivesFailureOfOneNode() throws IOException {
+    for (int i = 0; i < 30; i++) {
+      nodes.get(1).put("state" + i, buildSession("state" + i), Duration.ofMinutes(1));
+    }
+    nodes.removeLast().close();
+    for (int i = 0; i < 30; i++) {
+      assertThat(nodes.get(i % 2).remove("state" + i)).isPresent();
+    }
+  }
+
+  @Test
+  void sessionTakenAtOtherNodeIsNotKeptAtOrigin() throws IOException {
+    nodes.removeLast().close();
+    for (int i = 0; i < 30; i++) {
+      nodes.getFirst().put("state" + i, buildSession("state" + i), Duration.ofMinutes(1));
+      assertThat(nodes.get(1).remove("state" + i)).isPresent();
+      assertThat(nodes.getFirst().remove("state" + i)).isEmpty();
+    }
+    assertThat(nodes).allSatisfy(node -> assertThat(node.size()).isZero());
+  }
+
+  @Test
+  void forgedFrameClosesConnection() throws IOException {
+    try (final Socket socket = new Socket("localhost", nodes.getFirst().getReplicationPort())) {
+      final DataInputStream in = new DataInputStream(socket.getInputStream());
+      final DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+      SessionPeerProtocol.clientHandshake(in, out, SECRET);
+      // a DELETE in clear with a made up tag, as injected by anyone on the path
+      out.writeInt(24);
+      out.writeByte(SessionPeerProtocol.DELETE);
+      out.writeUTF("state");
+      out.write(new byte[16]);
+      out.flush();
+      assertThat(in.read()).isEqualTo(-1);
+    }
+  }
+
+  @Test
+  void replayedFrameClosesConnection() throws IOException {
+    try (final Socket socket = new Socket("localhost", nodes.getFirst().getReplicationPort())) {
+      final ByteArrayOutputStream recorded = new ByteArrayOutputStream();
+      final OutputStream socketOut = socket.getOutputStream();
+      final SessionPeerChannel channel =
+          SessionPeerProtocol.clientHandshake(
+              new DataInputStream(socket.getInputStream()),
+              new DataOutputStream(
+                  new OutputStream() {
+                    @Override
+                    public void write(final int b) throws IOException {
+                      socketOut.write(b);
+                      recorded.write(b);
+                    }
+                  }),
+              SECRET);
+      recorded.reset();
+      channel.frame().writeByte(SessionPeerProtocol.PING);
+      channel.send();
+      assertThat(channel.receive().readByte()).isEqualTo(SessionPeerProtocol.OK);
+      socketOut.write(recorded.toByteArray());
+      assertThatThrownBy(channel::receive).isInstanceOf(IOException.class);
+    }
+  }
+
+  @Test
+  void connectionWithWrongSecretIsRejected() {
+    final SessionPeerClient client =
+        new SessionPeerClient(
+            "localhost:" + nodes.getFirst().getReplicationPort(), "wrong", Duration.ofSeconds(1));
+    assertThatThrownBy(() -> client.take("state")).isInstanceOf(IOException.class);
+  }
+
+  @Test
+  void pooledConnectionIsReusedAfterEmptyTake() throws IOException {
+    try (final SessionPeerClient client =
+        new SessionPeerClient(
+            "localhost:" + nodes.getFirst().getReplicationPort(), SECRET, Duration.ofSeconds(1))) {
+      assertThat(client.take("state")).isEmpty();
+      // checked with a PING, then used for the TAKE
+      assertThat(client.take("state")).isEmpty();
+    }
+  }
+
+  @Test
+  void sessionsAreReplicatedEncrypted() {
+    final AuthSessionCipher cipher =
+        new AuthSessionCipher(SYMMETRIC_ENCRYPTION_KEY, SessionPeerProtocol.CIPHER_PURPOSE);
+    final byte[] encoded = AuthSessionCodec.encode(buildSession("state"));
+    final byte[] encrypted = cipher.encrypt(encoded, "state");
+
+    assertThat(cipher.decrypt(encrypted, "state")).contains(encoded);
+    assertThat(cipher.decrypt(encrypted, "otherState")).isEmpty();
+    assertThat(
+            new AuthSessionCipher(SYMMETRIC_ENCRYPTION_KEY, "otherPurpose")
+                .decrypt(encrypted, "state"))
+        .isEmpty();
+  }
+}
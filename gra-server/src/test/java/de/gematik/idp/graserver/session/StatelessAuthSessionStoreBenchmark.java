@@ -0,0 +1,115 @@
+/*
+ *  Copyright 2023 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.idp.graserver.session;
+
+import de.gematik.idp.graserver.configuration.FdAuthServerConfiguration;
+import de.gematik.idp.graserver.data.AuthSession;
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import javax.crypto.spec.SecretKeySpec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of one flow (create the session with message nr.1, consume it with message nr.9) with the
+ * in-memory store against the stateless store. The heap one open session costs in the in-memory
+ * store is printed during setup; the stateless store holds nothing, it pays with encryption.
+ *
+ * <p>Figures of one run (JDK 21, one fork) with the realistic session below:
+ *
+ * <ul>
+ *   <li>MEMORY: about 3.8 us per flow, about 1 KiB heap per open session, state length 32
+ *   <li>STATELESS: about 10.9 us per flow, no heap per open session, state length 432
+ * </ul>
+ *
+ * The stateless store trades about 7 us of AES-GCM per flow for about 1 KiB heap per open session.
+ * The state grows with the frontend parameters and is capped by statelessMaxStateLength.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StatelessAuthSessionStoreBenchmark {
+
+  private static final int OPEN_SESSIONS = 100000;
+  private static final Duration TIME_TO_LIVE = Duration.ofMinutes(10);
+  private static final AuthSession SESSION =
+      AuthSession.builder()
+          .frontendClientId("https://Fachdienst007.de/client")
+          .frontendState("state_Fachdienst")
+          .frontendRedirectUri("https://Fachdienst007.de/client/auth")
+          .frontendCodeChallenge("P62rd1KSUnScGIEs1WrpYj3g_poTqmx8mM4msxehNdk")
+          .frontendCodeChallengeMethod("S256")
+          .frontendResponseType("code")
+          .frontendScope("urn:telematik:display_name urn:telematik:versicherter openid")
+          .fdAuthServerCodeVerifier("z4IFTEIhgUKQjB1xgQkVDRo9vGcFodnBZhv4Gs9wtZY")
+          .frontendNonce("42")
+          .idpIss("https://idpsek.dev.gematik.solutions")
+          .build();
+
+  @Param({"MEMORY", "STATELESS"})
+  private String type;
+
+  private AuthSessionStore authSessionStore;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    final FdAuthServerConfiguration configuration = FdAuthServerConfiguration.builder().build();
+    configuration.getSessionStore().setMaxSessions(OPEN_SESSIONS * 2);
+    final long heapBefore = usedHeap();
+    authSessionStore =
+        "MEMORY".equals(type)
+            ? new ConcurrentAuthSessionStore(configuration)
+            : new StatelessAuthSessionStore(new SecretKeySpec(new byte[32], "AES"), configuration);
+    for (int i = 0; i < OPEN_SESSIONS; i++) {
+      // every open session gets its own copy, as the sessions of real flows do
+      authSessionStore.create(
+          AuthSessionCodec.decode(AuthSessionCodec.encode(SESSION)).orElseThrow(), TIME_TO_LIVE);
+    }
+    System.out.printf(
+        "%n%s store: %d bytes heap per open session, state length %d%n",
+        type,
+        (usedHeap() - heapBefore) / OPEN_SESSIONS,
+        authSessionStore.create(SESSION, TIME_TO_LIVE).length());
+  }
+
+  @Benchmark
+  public Optional<AuthSession> flow() {
+    return authSessionStore.remove(authSessionStore.create(SESSION, TIME_TO_LIVE));
+  }
+
+  private static long usedHeap() {
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+  }
+}
@@ -0,0 +1,122 @@
+/*
+ *  Copyright 2023 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.idp.graserver.session;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import de.gematik.idp.graserver.configuration.FdAuthServerConfiguration;
+import de.gematik.idp.graserver.data.AuthSession;
+import de.gematik.idp.graserver.exceptions.FdAuthServerException;
+import java.time.Duration;
+import javax.crypto.spec.SecretKeySpec;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+
+class StatelessAuthSessionStoreTest {
+
+  private final MutableClock clock = new MutableClock();
+  private final StatelessAuthSessionStore authSessionStore =
+      new StatelessAuthSessionStore(
+          new SecretKeySpec(new byte[32], "AES"),
+          FdAuthServerConfiguration.builder().build(),
+          clock);
+
+  private static AuthSession buildSession() {
+    return AuthSession.builder()
+        .frontendState("frontendState")
+        .fdAuthServerCodeVerifier("codeVerifier")
+        .idpIss("idpIss")
+        .build();
+  }
+
+  @Test
+  void sessionIsRestoredFromState() {
+    final String state = authSessionStore.create(buildSession(), Duration.ofMinutes(1));
+    assertThat(state).matches("[A-Za-z0-9_-]+").doesNotContain("codeVerifier");
+    assertThat(authSessionStore.remove(state))
+        .hasValueSatisfying(
+            session -> {
+              assertThat(session.getFdAuthServerCodeVerifier()).isEqualTo("codeVerifier");
+              assertThat(session.getIdpIss()).isEqualTo("idpIss");
+            });
+    assertThat(authSessionStore.size()).isZero();
+  }
+
+  @Test
+  void expiredStateIsRejected() {
+    final String state = authSessionStore.create(buildSession(), Duration.ofMinutes(1));
+    clock.advance(Duration.ofMinutes(12));
+    assertThat(authSessionStore.remove(state)).isEmpty();
+  }
+
+  @Test
+  void tamperedStateIsRejected() {
+    final String state = authSessionStore.create(buildSession(), Duration.ofMinutes(1));
+    final char last = state.charAt(state.length() - 5);
+    final String tampered =
+        state.substring(0, state.length() - 5)
+            + (last == 'A' ? 'B' : 'A')
+            + state.substring(state.length() - 4);
+    assertThat(authSessionStore.remove(tampered)).isEmpty();
+  }
+
+  @Test
+  void stateOfOtherKeyIsRejected() {
+    final String state =
+        new StatelessAuthSessionStore(
+                new SecretKeySpec(new byte[32], 0, 16, "AES"),
+                FdAuthServerConfiguration.builder().build())
+            .create(buildSession(), Duration.ofMinutes(1));
+    assertThat(authSessionStore.remove(state)).isEmpty();
+  }
+
+  @Test
+  void randomStateIsRejected() {
+    assertThat(authSessionStore.remove("4a5b8c0e7d2f4e1a9b3c6d8e0f1a2b3c")).isEmpty();
+    assertThat(authSessionStore.remove("not base64 !")).isEmpty();
+  }
+
+  @Test
+  void oversizedSessionIsRejected() {
+    final AuthSession session =
+        AuthSession.builder()
+            .frontendState("s".repeat(512))
+            .frontendNonce("n".repeat(512))
+            .fdAuthServerCodeVerifier("codeVerifier")
+            .build();
+    assertThatThrownBy(() -> authSessionStore.create(session, Duration.ofMinutes(1)))
+        .isInstanceOfSatisfying(
+            FdAuthServerException.class,
+            e -> assertThat(e.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST));
+    assertThat(authSessionStore.remove("A".repeat(1025))).isEmpty();
+  }
+
+  @Test
+  void stateAtMaximumLengthIsAccepted() {
+    final String state = authSessionStore.create(buildSession(), Duration.ofMinutes(1));
+    final AuthSession session =
+        AuthSession.builder()
+            .frontendState("s".repeat("frontendState".length() + (1024 - state.length()) * 3 / 4))
+            .fdAuthServerCodeVerifier("codeVerifier")
+            .idpIss("idpIss")
+            .build();
+    final String longestState = authSessionStore.create(session, Duration.ofMinutes(1));
+    assertThat(longestState).hasSizeLessThanOrEqualTo(1024).hasSizeGreaterThan(1020);
+    assertThat(authSessionStore.remove(longestState)).isPresent();
+  }
+}